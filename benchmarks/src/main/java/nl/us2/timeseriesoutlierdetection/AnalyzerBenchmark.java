@@ -0,0 +1,64 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every analyzer on a single serie, sizes are exact as the serie does not go through auto rollup. Analyzers that train too slowly
+ * for the largest sizes are in CostlyAnalyzerBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalyzerBenchmark {
+    @Param({
+            "NoopTimeserieAnalyzer",
+            "NormalDistributionTimeserieAnalyzer",
+            "LogNormalDistributionTimeserieAnalyzer",
+            "SimpleRegressionTimeserieAnalyzer",
+            "MovingAverageTimeserieAnalyzer",
+            "IntervalInterceptorTimeserieAnalyzer",
+            "RandomWalkRegressionTimeserieAnalyzer",
+            "TimeBucketSimpleRegressionTimeserieAnalyzer",
+            "MultipleLinearRegressionTimeserieAnalyzer",
+            "SimpleExponentialSmoothingTimeserieAnalyzer",
+            "HoltWintersTimeserieAnalyzer"
+    })
+    public String analyzer;
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"CONSTANT", "SINE", "INTERVALS", "GROWTH"})
+    public SyntheticSeries.Shape shape;
+
+    private ITimeserieAnalyzer instance;
+    private MutableDataLoader dl;
+    private HashMap<String, Timeseries> timeseries;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dl = new MutableDataLoader("benchmark");
+        timeseries = SyntheticSeries.timeseries(shape, size, 0.1, 10);
+    }
+
+    // Fresh analyzer every call, so no cached state carries over between calls
+    @Setup(Level.Invocation)
+    public void newAnalyzer() throws Exception {
+        instance = create(analyzer);
+    }
+
+    static ITimeserieAnalyzer create(String analyzer) throws Exception {
+        return (ITimeserieAnalyzer) Class.forName(AnalyzerBenchmark.class.getPackage().getName() + "." + analyzer).getDeclaredConstructor().newInstance();
+    }
+
+    @Benchmark
+    public TimeserieAnalyzerResult analyze() {
+        return instance.analyze(dl, timeseries);
+    }
+}
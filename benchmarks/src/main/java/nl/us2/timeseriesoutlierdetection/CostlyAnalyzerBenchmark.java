@@ -0,0 +1,50 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analyzers that are retrained from scratch on every invocation and too slow for the largest AnalyzerBenchmark sizes, e.g. the one-class SVM
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CostlyAnalyzerBenchmark {
+    @Param({
+            "PolynomialRegressionTimeserieAnalyzer",
+            "OneClassSVMTimeserieAnalyzer"
+    })
+    public String analyzer;
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    @Param({"CONSTANT", "SINE", "INTERVALS", "GROWTH"})
+    public SyntheticSeries.Shape shape;
+
+    private ITimeserieAnalyzer instance;
+    private MutableDataLoader dl;
+    private HashMap<String, Timeseries> timeseries;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dl = new MutableDataLoader("benchmark");
+        timeseries = SyntheticSeries.timeseries(shape, size, 0.1, 10);
+    }
+
+    // Fresh analyzer every call, the one-class SVM would otherwise only measure cache hits
+    @Setup(Level.Invocation)
+    public void newAnalyzer() throws Exception {
+        instance = AnalyzerBenchmark.create(analyzer);
+    }
+
+    @Benchmark
+    public TimeserieAnalyzerResult analyze() {
+        return instance.analyze(dl, timeseries);
+    }
+}
@@ -0,0 +1,68 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw file parsing and preprocessing (bucketing, gap filling, rollup) of a loader
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataLoaderBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    @Param({"SINE", "INTERVALS"})
+    public SyntheticSeries.Shape shape;
+
+    @Param({"stream", "mmap"})
+    public String parserMode;
+
+    private File file;
+    private HashMap<String, RawSeries> raw;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = File.createTempFile("benchmark", ".tsv");
+        file.deleteOnExit();
+        SyntheticSeries.writeTsv(file, shape, size, 0.1);
+        raw = new HashMap<String, RawSeries>();
+        raw.put("regular", SyntheticSeries.rawSeries(shape, size, 0.1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void loadRawData(Blackhole bh) throws Exception {
+        FileDataLoader dl = new FileDataLoader(file.getAbsolutePath());
+        dl.setConfig("parser_mode", parserMode);
+        RawSeriesCollector collector = new RawSeriesCollector();
+        dl.loadRawData(collector);
+        bh.consume(collector.getSeries());
+    }
+
+    @Benchmark
+    public HashMap<String, Timeseries> processData() throws Exception {
+        MutableDataLoader dl = new MutableDataLoader("benchmark");
+        dl.processData(raw);
+        return dl.getTimeseries();
+    }
+
+    @Benchmark
+    public long autoRollup() {
+        MutableDataLoader dl = new MutableDataLoader("benchmark");
+        RawSeries r = raw.get("regular");
+        return dl._autoRollup(r.getTimestamps()[0], r.getTimestamps()[r.size() - 1]);
+    }
+}
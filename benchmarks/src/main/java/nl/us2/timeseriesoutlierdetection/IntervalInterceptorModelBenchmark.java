@@ -0,0 +1,41 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training of the interval model in isolation
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntervalInterceptorModelBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    @Param({"INTERVALS", "SINE"})
+    public SyntheticSeries.Shape shape;
+
+    private long[] ts;
+    private double[] vals;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ts = SyntheticSeries.timestamps(size);
+        vals = SyntheticSeries.values(shape, size, 0.0);
+    }
+
+    @Benchmark
+    public IntervalInterceptorModel train() throws Exception {
+        IntervalInterceptorModel m = new IntervalInterceptorModel();
+        for (int i = 0; i < size; i++) {
+            m.addData(ts[i], vals[i]);
+        }
+        m.train();
+        return m;
+    }
+}
@@ -0,0 +1,95 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Deterministic generators for the shapes in the testdata folder, at any size
+ */
+public class SyntheticSeries {
+    public static final long START_TS = 1434879780L;
+    public static final long STEP = 60L;
+    private static final long SEED = 42L;
+
+    public enum Shape {
+        CONSTANT, SINE, INTERVALS, GROWTH
+    }
+
+    // Values only, noise is a fraction of the base level
+    public static double[] values(Shape shape, int n, double noise) {
+        Random rand = new Random(SEED);
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i++) {
+            double v;
+            switch (shape) {
+                case CONSTANT:
+                    // constant_line_no_noise_*
+                    v = 100;
+                    break;
+                case SINE:
+                    // sine_no_noise_*, 10 - 30 - 10 over a day
+                    v = 20 + 10 * Math.sin(2 * Math.PI * i / 1440D);
+                    break;
+                case INTERVALS:
+                    // intervals_multi_no_noise_*, 0 base with a peak of 5 every 2 and 10 every 4 points
+                    v = i % 4 == 3 ? 10 : (i % 2 == 1 ? 5 : 0);
+                    break;
+                case GROWTH:
+                default:
+                    // steady_growth_no_noise_*
+                    v = 10 + i;
+                    break;
+            }
+            if (noise > 0) {
+                v += v * noise * (rand.nextDouble() - 0.5);
+            }
+            vals[i] = v;
+        }
+        return vals;
+    }
+
+    public static long[] timestamps(int n) {
+        long[] ts = new long[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = START_TS + i * STEP;
+        }
+        return ts;
+    }
+
+    public static RawSeries rawSeries(Shape shape, int n, double noise) {
+        RawSeries raw = new RawSeries(n);
+        long[] ts = timestamps(n);
+        double[] vals = values(shape, n, noise);
+        for (int i = 0; i < n; i++) {
+            raw.add(ts[i], vals[i]);
+        }
+        return raw;
+    }
+
+    // Ready to analyze serie, bypasses the loader so the size is not changed by auto rollup
+    public static HashMap<String, Timeseries> timeseries(Shape shape, int n, double noise, long forecastPeriods) throws Exception {
+        Timeseries timeserie = new Timeseries("regular", forecastPeriods);
+        timeserie.setData(timestamps(n), values(shape, n, noise), n);
+        HashMap<String, Timeseries> map = new HashMap<String, Timeseries>();
+        map.put("regular", timeserie);
+        return map;
+    }
+
+    // Same format as the testdata files
+    public static void writeTsv(File f, Shape shape, int n, double noise) throws Exception {
+        long[] ts = timestamps(n);
+        double[] vals = values(shape, n, noise);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            w.write("ts\tregular\n");
+            for (int i = 0; i < n; i++) {
+                w.write(ts[i] + "\t" + vals[i] + "\n");
+            }
+        } finally {
+            w.close();
+        }
+    }
+}
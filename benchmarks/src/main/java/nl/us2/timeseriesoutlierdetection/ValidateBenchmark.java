@@ -0,0 +1,55 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring and detailing of an analysis result
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidateBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"10", "1000"})
+    public int forecastPeriods;
+
+    private MutableDataLoader dl;
+    private AnalysisResult result;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // Serie at the target resolution with spikes in the classify window
+        dl = new MutableDataLoader("benchmark");
+        dl.setForecastPeriods(forecastPeriods);
+        dl.setDesiredTimeResolution((int) SyntheticSeries.STEP);
+        long[] ts = SyntheticSeries.timestamps(size);
+        double[] vals = SyntheticSeries.values(SyntheticSeries.Shape.SINE, size, 0.1);
+        for (int i = size - Math.min(size / 4, forecastPeriods); i < size; i += 2) {
+            vals[i] *= 10; // Spikes
+        }
+        dl.addData("regular", ts, vals);
+        dl.load();
+
+        List<ITimeserieAnalyzer> analyzers = new ArrayList<ITimeserieAnalyzer>();
+        analyzers.add(new NormalDistributionTimeserieAnalyzer());
+        analyzers.add(new SimpleRegressionTimeserieAnalyzer());
+        analyzers.add(new RandomWalkRegressionTimeserieAnalyzer());
+        analyzers.add(new SimpleExponentialSmoothingTimeserieAnalyzer());
+        analyzers.add(new HoltWintersTimeserieAnalyzer());
+        result = dl.runAnalysis(analyzers);
+    }
+
+    @Benchmark
+    public ArrayList<ValidatedTimeserieOutlier> validate() {
+        return dl.validate(result, 1);
+    }
+}
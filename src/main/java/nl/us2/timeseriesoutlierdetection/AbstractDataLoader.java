@@ -4,11 +4,12 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
 
 /**
  * Created by robin on 21/06/15.
@@ -16,16 +17,19 @@ import java.util.concurrent.atomic.AtomicInteger;
 public abstract class AbstractDataLoader implements IDataLoader {
     private HashMap<String, String> settings;
     private HashMap<String, Timeseries> timeseries;
-    private List<Long> expectedErrors;
-    private List<TimeserieOutlier> outliers;
-    private List<TimeserieInlier> inliers;
-    private AtomicInteger activeAnalyzers;
+    private LinkedHashSet<Long> expectedErrors; // Bucket timestamps
+    private volatile AnalysisResult lastResult;
+    private HashMap<String, LinkedHashMap<String, IStreamingTimeserieModel>> streamingModels; // Serie > analyzer class > model, null if unreliable
+    private HashMap<String, PendingBucket> pendingBuckets;
+    public static final long DEFAULT_ANALYZE_TIMEOUT_MS = 60000L;
     public final int LOG_ERROR = 1;
     public final int LOG_WARN = 2;
     public final int LOG_NOTICE = 3;
     public final int LOG_INFO = 4;
     public final int LOG_DEBUG = 5;
-    private final int LOGLEVEL = LOG_INFO;
+    private volatile int logLevel = LOG_INFO;
+    private final ConcurrentHashMap<String, Integer> logLevels = new ConcurrentHashMap<String, Integer>(); // Overrides by class name, e.g. per analyzer
+    private volatile IMetrics metrics = IMetrics.NOOP;
     private long targetTsStepResolution = 60; // Default, @todo configure
     private long forecastPeriods = 10; // Amount of periods to forecast, @todo configure
     private ValueNormalizationModes valueNormalizationMode = ValueNormalizationModes.NONE; // @todo Configure
@@ -33,16 +37,56 @@ public abstract class AbstractDataLoader implements IDataLoader {
     public AbstractDataLoader() {
         settings = new HashMap<String, String>();
         timeseries = new HashMap<String, Timeseries>();
-        expectedErrors = new ArrayList<Long>();
-        outliers = Collections.synchronizedList(new ArrayList<TimeserieOutlier>());
-        inliers = Collections.synchronizedList(new ArrayList<TimeserieInlier>());
-        activeAnalyzers = new AtomicInteger();
+        expectedErrors = new LinkedHashSet<Long>();
+        lastResult = new AnalysisResult();
+        streamingModels = new HashMap<String, LinkedHashMap<String, IStreamingTimeserieModel>>();
+        pendingBuckets = new HashMap<String, PendingBucket>();
     }
 
     public void log(int type, String className, String msg) {
-        if (type > LOGLEVEL) {
+        if (!isLogEnabled(type, className)) {
             return;
         }
+        _write(type, className, msg);
+    }
+
+    // Parameterized message, the {} placeholders are only filled in when the level is enabled. Guard with isLogEnabled when computing an argument is expensive itself
+    public void log(int type, String className, String format, Object... args) {
+        if (!isLogEnabled(type, className)) {
+            return;
+        }
+        _write(type, className, format(format, args));
+    }
+
+    public boolean isLogEnabled(int type, String className) {
+        Integer level = logLevels.isEmpty() ? null : logLevels.get(className);
+        return type <= (level != null ? level : logLevel);
+    }
+
+    public void setLogLevel(int level) {
+        logLevel = level;
+    }
+
+    // Level for one class, e.g. LOG_DEBUG for a single analyzer
+    public void setLogLevel(String className, int level) {
+        logLevels.put(className, level);
+    }
+
+    // Replaces every {} with the next argument
+    public static String format(String format, Object... args) {
+        StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+        int arg = 0;
+        int start = 0;
+        int i;
+        while (arg < args.length && (i = format.indexOf("{}", start)) >= 0) {
+            sb.append(format, start, i).append(args[arg++]);
+            start = i + 2;
+        }
+        sb.append(format, start, format.length());
+        return sb.toString();
+    }
+
+    private void _write(int type, String className, String msg) {
         msg = "[" + getConfig("name", "") + "] [" + className + "] " + msg;
         switch(type) {
             case LOG_ERROR:
@@ -54,10 +98,41 @@ public abstract class AbstractDataLoader implements IDataLoader {
         }
     }
 
+    public IMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Instrumentation of loading, analysis, streaming and validation, e.g. a MetricsRegistry
+    public void setMetrics(IMetrics metrics) {
+        this.metrics = metrics == null ? IMetrics.NOOP : metrics;
+    }
+
     public void setConfig(String k, String v) {
         settings.put(k, v);
         if (k.equalsIgnoreCase("rollup")) {
             targetTsStepResolution = Long.parseLong(v);
+        } else if (k.equalsIgnoreCase("loglevel")) {
+            setLogLevel(parseLogLevel(v, logLevel));
+        } else if (k.toLowerCase().startsWith("loglevel.")) {
+            String className = k.substring("loglevel.".length());
+            Integer level = logLevels.get(className);
+            setLogLevel(className, parseLogLevel(v, level != null ? level : logLevel));
+        }
+    }
+
+    // Level by number or name (error, warn, notice, info, debug), d if the level is unknown
+    public int parseLogLevel(String v, int d) {
+        String[] names = new String[]{ "error", "warn", "notice", "info", "debug" };
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(v.trim())) {
+                return LOG_ERROR + i;
+            }
+        }
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            log(LOG_WARN, getClass().getSimpleName(), "Unknown log level {}, keeping {}", v, d);
+            return d;
         }
     }
 
@@ -75,111 +150,451 @@ public abstract class AbstractDataLoader implements IDataLoader {
         return settings.getOrDefault(k, d);
     }
 
-    // Concurrent run
-    public List<TimeserieOutlier> analyze(List<ITimeserieAnalyzer> analyzers, int numThreads) throws InterruptedException {
-        // Reset
-        activeAnalyzers.set(0);
-        inliers.clear();
-        outliers.clear();
+    // Runs one analyzer over a set of series, timed and counted per analyzer
+    public TimeserieAnalyzerResult runAnalyzer(ITimeserieAnalyzer analyzer, HashMap<String, Timeseries> series) {
+        String analyzerName = analyzer.getClass().getSimpleName();
+        long start = System.nanoTime();
+        TimeserieAnalyzerResult res = analyzer.analyze(this, series);
+        metrics.recordLatency(IMetrics.STAGE_ANALYZER, analyzerName, System.nanoTime() - start);
+        if (res != null) {
+            metrics.increment(IMetrics.OUTLIERS, analyzerName, res.getOutliers().size());
+            metrics.increment(IMetrics.INLIERS, analyzerName, res.getInliers().size());
+        }
+        return res;
+    }
+
+    // Concurrent run, bounded by the analyze_timeout_ms (whole call) and analyzer_timeout_ms (single analyzer) budgets
+    public AnalysisResult runAnalysis(List<ITimeserieAnalyzer> analyzers, int numThreads) throws InterruptedException {
+        long start = System.nanoTime();
+        AnalysisResult result = new AnalysisResult();
+        int numActive = 0;
+
+        // Budgets
+        long callBudget = Long.parseLong(getConfig("analyze_timeout_ms", String.valueOf(DEFAULT_ANALYZE_TIMEOUT_MS)));
+        long analyzerBudget = Long.parseLong(getConfig("analyzer_timeout_ms", String.valueOf(callBudget)));
+        long callDeadline = System.currentTimeMillis() + callBudget;
 
         // Threadpool
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads);
 
-        // Analyze
+        // Analyze, every task fills its own result
+        List<AnalyzerCallable> tasks = new ArrayList<AnalyzerCallable>();
+        List<Future<TimeserieAnalyzerResult>> futures = new ArrayList<Future<TimeserieAnalyzerResult>>();
         for (final ITimeserieAnalyzer analyzer : analyzers) {
-            executor.submit(new AnalyzerRunnable(this, analyzer));
+            AnalyzerCallable task = new AnalyzerCallable(this, analyzer);
+            tasks.add(task);
+            futures.add(executor.submit(task));
         }
-
-        // Shutdown
         executor.shutdown();
-        executor.awaitTermination(60, TimeUnit.SECONDS);
+        metrics.gauge(IMetrics.POOL_QUEUE, getClass().getSimpleName(), executor.getQueue().size());
+
+        // Collect, only results of analyzers that finished within budget are merged
+        for (int i = 0; i < futures.size(); i++) {
+            Future<TimeserieAnalyzerResult> future = futures.get(i);
+            AnalyzerCallable task = tasks.get(i);
+            TimeserieAnalyzerResult res = null;
+            while (res == null) {
+                // Analyzer budget starts once it runs
+                long startedAt = task.startedAt;
+                long deadline = startedAt > 0 ? Math.min(callDeadline, startedAt + analyzerBudget) : callDeadline;
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    // Cooperative cancel, analyzers check the interrupt flag
+                    future.cancel(true);
+                    result.addTimedOutAnalyzer(task.analyzer.getClass().getSimpleName());
+                    log(LOG_ERROR, task.analyzer.getClass().getSimpleName(), "Timed out, cancelled");
+                    break;
+                }
+                try {
+                    res = future.get(startedAt > 0 ? wait : Math.min(wait, analyzerBudget), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Re-evaluate the deadline
+                } catch (ExecutionException e) {
+                    log(LOG_ERROR, task.analyzer.getClass().getSimpleName(), String.valueOf(e.getCause()));
+                    break;
+                }
+            }
+            if (res != null && result.merge(res)) {
+                numActive++;
+            }
+        }
+        executor.shutdownNow();
+        result.setActiveAnalyzers(numActive);
+        metrics.recordLatency(IMetrics.STAGE_ANALYZE, null, System.nanoTime() - start);
 
         // Active?
-        if (activeAnalyzers.get() < 1) {
+        if (numActive < 1) {
             log(LOG_ERROR, getClass().getSimpleName(), "No analyzers were taken into account");
         }
-        return outliers;
+        return result;
     }
 
-    public List<TimeserieOutlier> analyze(List<ITimeserieAnalyzer> analyzers) {
-        // Reset
-        activeAnalyzers.set(0);
-        inliers.clear();
-        outliers.clear();
+    public AnalysisResult runAnalysis(List<ITimeserieAnalyzer> analyzers) {
+        long start = System.nanoTime();
+        AnalysisResult result = new AnalysisResult();
+        int numActive = 0;
 
         // Analyze
         for (final ITimeserieAnalyzer analyzer : analyzers) {
-            new AnalyzerRunnable(this, analyzer).run();
+            if (result.merge(runAnalyzer(analyzer, timeseries))) {
+                numActive++;
+            }
         }
+        result.setActiveAnalyzers(numActive);
+        metrics.recordLatency(IMetrics.STAGE_ANALYZE, null, System.nanoTime() - start);
 
         // Active?
-        if (activeAnalyzers.get() < 1) {
+        if (numActive < 1) {
             log(LOG_ERROR, getClass().getSimpleName(), "No analyzers were taken into account");
         }
-        return outliers;
+        return result;
     }
 
-    // Convert it to a sorted TS (long) Value (double) set, fills gaps with 0's
-    protected void processData(HashMap<String, HashMap<String, String>> raw) throws Exception {
-        for (Map.Entry<String, HashMap<String, String>> kv : raw.entrySet()) {
-            String serieName = kv.getKey();
+    // Concurrent run, the result is kept for validate()
+    public List<TimeserieOutlier> analyze(List<ITimeserieAnalyzer> analyzers, int numThreads) throws InterruptedException {
+        setLastResult(runAnalysis(analyzers, numThreads));
+        return lastResult.getOutliers();
+    }
 
-            // New serie
-            Timeseries timeserie = new Timeseries(serieName, forecastPeriods);
+    public List<TimeserieOutlier> analyze(List<ITimeserieAnalyzer> analyzers) {
+        setLastResult(runAnalysis(analyzers));
+        return lastResult.getOutliers();
+    }
 
-            // Iterate data points and convert to the right datatypes, while sorting them
-            TreeMap<Long, Double> sortedMap = new TreeMap<Long, Double>();
-            for (Map.Entry<String, String> tskv : kv.getValue().entrySet()) {
-                // TS
-                Long ts = Long.parseLong(tskv.getKey());
-
-                // Bucket ts
-                ts = ts - (ts % targetTsStepResolution);
-
-                // Val
-                Double val = Double.parseDouble(tskv.getValue());
-                val = normalizeValue(val);
-
-                // Add
-                if (!sortedMap.containsKey(ts)) {
-                    sortedMap.put(ts, val);
-                } else {
-                    // Sum
-                    double tmp = sortedMap.get(ts);
-                    tmp += val;
-                    sortedMap.put(ts, tmp);
-                }
+    // Names of the analyzers that were cancelled in the last run
+    public List<String> getTimedOutAnalyzers() {
+        return lastResult.getTimedOutAnalyzers();
+    }
+
+    // Result of the last analyze() call, or one collected elsewhere, e.g. by the batch engine
+    public AnalysisResult getLastResult() {
+        return lastResult;
+    }
+
+    protected void setLastResult(AnalysisResult result) {
+        lastResult = result;
+    }
+
+    public HashMap<String, Timeseries> getTimeseries() {
+        return timeseries;
+    }
+
+    // Streaming: train models of the streaming capable analyzers once on the loaded data
+    public void startStreaming(List<ITimeserieAnalyzer> analyzers) {
+        resumeStreaming(analyzers, null);
+    }
+
+    // Streaming: restore models from a snapshot of saveStreaming and learn the points loaded since, anything without a usable state is trained
+    public void resumeStreaming(List<ITimeserieAnalyzer> analyzers, File snapshotFile) {
+        ModelSnapshot snapshot = null;
+        if (snapshotFile != null && snapshotFile.exists()) {
+            try {
+                snapshot = ModelSnapshot.read(snapshotFile);
+                log(LOG_INFO, getClass().getSimpleName(), "Loaded {} model states from {}", snapshot.getEntries().size(), snapshotFile);
+            } catch (IOException e) {
+                // Corrupt, truncated or from another version, retrain everything
+                log(LOG_WARN, getClass().getSimpleName(), "Ignoring model snapshot: {}", e.getMessage());
             }
+        }
 
-            // Fill gaps
-            long tsInterval = targetTsStepResolution;
-            long tsPrev = 0;
-            HashMap<Long, Double> fills = new HashMap<Long, Double>();
-            for (Long ts : sortedMap.keySet()) {
-                long actualTsInterval = ts - tsPrev;
-                if (tsPrev != 0 && tsInterval != actualTsInterval) {
-                    //System.err.println("Gap after " + tsPrev + " until " + ts);
-                    long gapSize = (actualTsInterval - tsInterval) / tsInterval; // Interval should be 1*tsInterval
-                    long gapTs = tsPrev;
-                    for (int i = 0; i < gapSize; i++) {
-                        gapTs += tsInterval;
-                        //System.out.println("Filing gap" + gapTs);
-                        fills.put(gapTs, 0D) ;// @todo Configure 0, or average, or previous, or ..
+        streamingModels.clear();
+        pendingBuckets.clear();
+        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
+            Timeseries timeserie = kv.getValue();
+            LinkedHashMap<String, IStreamingTimeserieModel> models = new LinkedHashMap<String, IStreamingTimeserieModel>();
+            for (ITimeserieAnalyzer analyzer : analyzers) {
+                if (!(analyzer instanceof IStreamingTimeserieAnalyzer)) {
+                    continue;
+                }
+                String analyzerName = analyzer.getClass().getName();
+                try {
+                    IStreamingTimeserieModel m;
+                    int learnFrom = timeserie.getClassifyStart();
+                    ModelSnapshot.Entry entry = snapshot != null && analyzer instanceof ISnapshotTimeserieAnalyzer ? snapshot.get(kv.getKey(), analyzerName) : null;
+                    if (entry != null && (entry.getNormalizationMode() != timeserie.getNormalizationMode() || entry.getResolution() != targetTsStepResolution)) {
+                        // Learned on differently normalized or rolled up values, the state does not fit this serie
+                        log(LOG_INFO, analyzer.getClass().getSimpleName(), "Retraining {}, snapshot has normalization {} and resolution {}", kv.getKey(), entry.getNormalizationMode(), entry.getResolution());
+                        entry = null;
+                    }
+                    if (entry != null) {
+                        m = ((ISnapshotTimeserieAnalyzer) analyzer).readSnapshot(timeserie, entry.getData());
+                        learnFrom = _indexAfter(timeserie, entry.getMarker());
+                    } else {
+                        long start = System.nanoTime();
+                        m = ((IStreamingTimeserieAnalyzer) analyzer).trainStreaming(this, timeserie);
+                        metrics.recordLatency(IMetrics.STAGE_TRAIN, analyzer.getClass().getSimpleName(), System.nanoTime() - start);
+                    }
+                    models.put(analyzerName, m);
+                    if (m == null) {
+                        continue;
                     }
+
+                    // Catch up with the points after the training data or the snapshot, missing points are not learned, like in _streamValue
+                    long[] ts = timeserie.getTimestamps();
+                    double[] vals = timeserie.getValues();
+                    GapRanges missing = timeserie.getMissing();
+                    int gap = missing.indexAfter(learnFrom);
+                    for (int i = learnFrom; i < timeserie.size(); i++) {
+                        if (gap < missing.size() && i >= missing.getStart(gap)) {
+                            i = missing.getEnd(gap++) - 1;
+                            continue;
+                        }
+                        m.learn(ts[i], vals[i]);
+                    }
+                } catch (Exception e) {
+                    log(LOG_ERROR, analyzer.getClass().getSimpleName(), e.getMessage());
+                }
+            }
+            streamingModels.put(kv.getKey(), models);
+        }
+    }
+
+    // Streaming: write the state of every streaming model, the marker is the last learned timestamp. The normalization and resolution are stored to detect a changed configuration. Pending buckets are not included, flush first
+    public void saveStreaming(File snapshotFile) throws IOException {
+        ModelSnapshot snapshot = new ModelSnapshot();
+        for (Map.Entry<String, LinkedHashMap<String, IStreamingTimeserieModel>> kv : streamingModels.entrySet()) {
+            Timeseries timeserie = timeseries.get(kv.getKey());
+            long lastTs = timeserie.size() > 0 ? timeserie.getTimestamps()[timeserie.size() - 1] : Long.MIN_VALUE;
+            for (Map.Entry<String, IStreamingTimeserieModel> mkv : kv.getValue().entrySet()) {
+                IStreamingTimeserieModel m = mkv.getValue();
+                // Unreliable models are not saved, they are trained again on resume as the serie may have grown enough
+                if (!(m instanceof ISnapshotTimeserieModel)) {
+                    continue;
                 }
-                tsPrev = ts;
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bos);
+                ((ISnapshotTimeserieModel) m).writeSnapshot(out);
+                out.flush();
+                snapshot.add(kv.getKey(), mkv.getKey(), lastTs, timeserie.getNormalizationMode(), targetTsStepResolution, bos.toByteArray());
+            }
+        }
+        snapshot.write(snapshotFile);
+        log(LOG_INFO, getClass().getSimpleName(), "Saved {} model states to {}", snapshot.getEntries().size(), snapshotFile);
+    }
+
+    // First index with a timestamp after ts
+    private static int _indexAfter(Timeseries timeserie, long ts) {
+        int i = Arrays.binarySearch(timeserie.getTimestamps(), 0, timeserie.size(), ts);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    // Streaming: append a raw point, points are summed into their bucket which is classified once a point of a later bucket arrives (or on flush)
+    public TimeserieAnalyzerResult append(String serieName, long ts, double val) throws Exception {
+        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
+        if (!timeseries.containsKey(serieName)) {
+            throw new Exception("Unknown serie " + serieName);
+        }
+        long bucket = ts - (ts % targetTsStepResolution);
+        PendingBucket pending = pendingBuckets.get(serieName);
+        if (pending != null && bucket == pending.ts) {
+            pending.val += val;
+            return res;
+        }
+
+        // Previous bucket, the pending one or else the last one of the serie
+        Timeseries timeserie = timeseries.get(serieName);
+        if (pending == null && timeserie.size() == 0) {
+            pendingBuckets.put(serieName, new PendingBucket(bucket, val));
+            return res;
+        }
+        long previousBucket = pending != null ? pending.ts : timeserie.getTimestamps()[timeserie.size() - 1];
+        if (bucket <= previousBucket) {
+            throw new Exception("Point at " + ts + " is not after bucket " + previousBucket + " of serie " + serieName);
+        }
+
+        // Bucket complete, fill gaps up to the new bucket
+        if (pending != null) {
+            _streamPoint(res, serieName, pending.ts, pending.val);
+        }
+        int gapLength = (int)((bucket - previousBucket) / targetTsStepResolution) - 1;
+        if (gapLength > 0) {
+            // Interpolation uses the first point of the new bucket, the bucket itself is not complete yet
+            GapPolicies gapPolicy = timeserie.getGapPolicy();
+            double before = timeserie.getValues()[timeserie.size() - 1];
+            double after = normalizeValue(timeserie.getNormalizationMode(), val);
+            for (int k = 0; k < gapLength; k++) {
+                long gapTs = previousBucket + (k + 1) * targetTsStepResolution;
+                _streamValue(res, serieName, timeserie, gapTs, GapRanges.fillValue(gapPolicy, before, after, k, gapLength, timeserie.getTrainAvg()), true);
+            }
+            metrics.increment(IMetrics.GAP_POINTS, serieName, gapLength);
+        }
+        if (pending == null) {
+            pendingBuckets.put(serieName, new PendingBucket(bucket, val));
+        } else {
+            pending.ts = bucket;
+            pending.val = val;
+        }
+        return res;
+    }
+
+    // Streaming: classify all pending buckets
+    public TimeserieAnalyzerResult flush() throws Exception {
+        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
+        for (Map.Entry<String, PendingBucket> kv : pendingBuckets.entrySet()) {
+            _streamPoint(res, kv.getKey(), kv.getValue().ts, kv.getValue().val);
+        }
+        pendingBuckets.clear();
+        return res;
+    }
+
+    // Classify one complete bucket with every streaming model of the serie, then learn it
+    protected void _streamPoint(TimeserieAnalyzerResult res, String serieName, long ts, double val) {
+        Timeseries timeserie = timeseries.get(serieName);
+        _streamValue(res, serieName, timeserie, ts, normalizeValue(timeserie.getNormalizationMode(), val), false);
+    }
+
+    // Append a normalized value, then classify and learn it, missing gap points are only appended
+    private void _streamValue(TimeserieAnalyzerResult res, String serieName, Timeseries timeserie, long ts, double val, boolean gap) {
+        LinkedHashMap<String, IStreamingTimeserieModel> models = streamingModels.get(serieName);
+        long start = System.nanoTime();
+
+        // The serie rejects points that do not advance, before any model saw them
+        int sanitized = timeserie.getSanitizedPoints();
+        timeserie.append(ts, val, gap);
+        if (timeserie.getSanitizedPoints() > sanitized) {
+            metrics.increment(IMetrics.SANITIZED, serieName, timeserie.getSanitizedPoints() - sanitized);
+        }
+        if (models != null && !(gap && timeserie.getGapPolicy() == GapPolicies.MISSING)) {
+            for (IStreamingTimeserieModel m : models.values()) {
+                if (m == null) {
+                    continue;
+                }
+                TimeserieOutlier o = m.classify(ts, val);
+                if (o instanceof TimeserieInlier) {
+                    res.addInlier((TimeserieInlier) o);
+                } else if (o != null) {
+                    res.addOutlier(o);
+                }
+                m.learn(ts, val);
+            }
+        }
+        metrics.recordLatency(IMetrics.STAGE_STREAM, null, System.nanoTime() - start);
+        metrics.increment(IMetrics.POINTS_STREAMED, serieName, 1L);
+    }
+
+    private static class PendingBucket {
+        private long ts;
+        private double val;
+
+        private PendingBucket(long ts, double val) {
+            this.ts = ts;
+            this.val = val;
+        }
+    }
+
+    // Typed raw data, loaders that can produce primitives directly override this, the default adapts loadRawData()
+    public void loadRawData(RawSeriesSink sink) throws Exception {
+        for (Map.Entry<String, HashMap<String, String>> kv : loadRawData().entrySet()) {
+            for (Map.Entry<String, String> tskv : kv.getValue().entrySet()) {
+                sink.add(kv.getKey(), Long.parseLong(tskv.getKey()), Double.parseDouble(tskv.getValue()));
             }
-            for (Map.Entry<Long, Double> kvFill : fills.entrySet()) {
-                sortedMap.put(kvFill.getKey(), kvFill.getValue());
+        }
+    }
+
+    // String representation of the typed raw data, for loaders implementing loadRawData(RawSeriesSink)
+    protected HashMap<String, HashMap<String, String>> _rawDataAsStrings() throws Exception {
+        HashMap<String, HashMap<String, String>> series = new HashMap<String, HashMap<String, String>>();
+        for (Map.Entry<String, RawSeries> kv : loadRawSeries().entrySet()) {
+            HashMap<String, String> points = new HashMap<String, String>();
+            RawSeries raw = kv.getValue();
+            for (int i = 0; i < raw.size(); i++) {
+                points.put(String.valueOf(raw.getTimestamps()[i]), String.valueOf(raw.getValues()[i]));
             }
+            series.put(kv.getKey(), points);
+        }
+        return series;
+    }
+
+    // Raw data as primitive columns
+    protected HashMap<String, RawSeries> loadRawSeries() throws Exception {
+        RawSeriesCollector collector = new RawSeriesCollector();
+        loadRawData(collector);
+        return collector.getSeries();
+    }
+
+    // Convert it to a sorted TS (long) Value (double) set, gaps are filled according to the gap_fill setting
+    protected void processData(HashMap<String, RawSeries> raw) throws Exception {
+        long start = System.nanoTime();
+        // Time span per serie, raw data does not have to be sorted
+        HashMap<String, long[]> spans = new HashMap<String, long[]>();
+        long[] firstSpan = null;
+        for (Map.Entry<String, RawSeries> kv : raw.entrySet()) {
+            RawSeries rawSerie = kv.getValue();
+            // A repeated timestamp counts once, with its last value
+            rawSerie.dedupe();
 
             // Skip empty datasets
-            if (sortedMap.size() == 0) {
+            if (rawSerie.size() == 0) {
+                continue;
+            }
+            long[] rawTs = rawSerie.getTimestamps();
+            long minTs = Long.MAX_VALUE;
+            long maxTs = Long.MIN_VALUE;
+            for (int i = 0; i < rawSerie.size(); i++) {
+                minTs = Math.min(minTs, rawTs[i]);
+                maxTs = Math.max(maxTs, rawTs[i]);
+            }
+            long[] span = new long[] { minTs, maxTs };
+            spans.put(kv.getKey(), span);
+            if (firstSpan == null) {
+                firstSpan = span;
+            }
+        }
+
+        // Many datapoints? Pick the rollup resolution up front
+        if (firstSpan != null) {
+            targetTsStepResolution = _autoRollup(firstSpan[0], firstSpan[1]);
+        }
+
+        // Bucket, fill gaps and roll up in one pass per serie
+        long tsInterval = targetTsStepResolution;
+        for (Map.Entry<String, RawSeries> kv : raw.entrySet()) {
+            String serieName = kv.getKey();
+            long[] span = spans.get(serieName);
+            if (span == null) {
                 continue;
             }
 
+            // New serie
+            Timeseries timeserie = new Timeseries(serieName, forecastPeriods);
+
+            // Dense buckets from the first to the last one
+            long firstBucket = span[0] - (span[0] % tsInterval);
+            long lastBucket = span[1] - (span[1] % tsInterval);
+            int n = (int)((lastBucket - firstBucket) / tsInterval) + 1;
+            long[] ts = new long[n];
+            double[] vals = new double[n];
+            for (int i = 0; i < n; i++) {
+                ts[i] = firstBucket + i * tsInterval;
+            }
+
+            // Sum points into their bucket, marking the buckets that got one
+            RawSeries rawSerie = kv.getValue();
+            metrics.increment(IMetrics.POINTS_LOADED, serieName, rawSerie.size());
+            long[] rawTs = rawSerie.getTimestamps();
+            double[] rawVals = rawSerie.getValues();
+            long[] seen = new long[(n + 63) >>> 6];
+            double sum = 0.0D;
+            for (int i = 0; i < rawSerie.size(); i++) {
+                long bucket = rawTs[i] - (rawTs[i] % tsInterval);
+                int b = (int)((bucket - firstBucket) / tsInterval);
+                double val = normalizeValue(rawVals[i]);
+                vals[b] += val;
+                sum += val;
+                seen[b >>> 6] |= 1L << b;
+            }
+
+            // Gaps as ranges, filled according to the policy
+            GapRanges gaps = GapRanges.fromClearBits(seen, n);
+            GapPolicies gapPolicy = getGapPolicy(serieName);
+            if (!gaps.isEmpty()) {
+                gaps.fill(vals, n, gapPolicy, sum / (n - gaps.getPoints()));
+                metrics.increment(IMetrics.GAP_POINTS, serieName, gaps.getPoints());
+                log(LOG_DEBUG, getClass().getSimpleName(), "{} gap(s) of {} bucket(s) in {} filled as {}", gaps.size(), gaps.getPoints(), serieName, gapPolicy);
+            }
+
             // Put in timeserie
-            timeserie.setData(sortedMap);
+            timeserie.setData(ts, vals, n, gaps, gapPolicy);
 
             // Alert policy
             if (serieName.equals("error")) {
@@ -190,14 +605,20 @@ public abstract class AbstractDataLoader implements IDataLoader {
             timeseries.put(serieName, timeserie);
         }
 
-        // Many datapoints? Auto rollup
-        _autoRollup();
-
         // Derive timeseries
-        _deriveErrorRate();
+        _deriveSeries();
 
         // Auto normalize data based on best practices
         _autoNormalizeData();
+
+        // Training outliers replaced in the final training data
+        for (Timeseries timeserie : timeseries.values()) {
+            if (timeserie.getSanitizedPoints() > 0) {
+                metrics.increment(IMetrics.SANITIZED, timeserie.getSerieName(), timeserie.getSanitizedPoints());
+                log(LOG_DEBUG, getClass().getSimpleName(), "Replaced {} training outlier(s) in {}", timeserie.getSanitizedPoints(), timeserie.getSerieName());
+            }
+        }
+        metrics.recordLatency(IMetrics.STAGE_PROCESS, null, System.nanoTime() - start);
     }
 
     protected void _autoNormalizeData() throws Exception {
@@ -209,81 +630,117 @@ public abstract class AbstractDataLoader implements IDataLoader {
             if (minMaxDelta >= 1000D) {
                 // More than X absolute difference between min, max, apply log normalization
                 log(LOG_INFO, getClass().getSimpleName(), "normalizing data");
-                log(LOG_DEBUG, getClass().getSimpleName(), "max-min value delta " + minMaxDelta);
+                log(LOG_DEBUG, getClass().getSimpleName(), "max-min value delta {}", minMaxDelta);
                 _printTimeserieDebug(ts);
 
-                // Normalize points
-                TreeMap<Long, Double> sortedMap = new TreeMap<Long, Double>();
-                for (Map.Entry<Long, Double> rts : ts.getData().entrySet()) {
-                    sortedMap.put(rts.getKey(), normalizeValue(ValueNormalizationModes.LOG, rts.getValue()));
+                // Normalize points in place
+                int n = ts.size();
+                double[] vals = ts.getValues();
+                for (int i = 0; i < n; i++) {
+                    vals[i] = normalizeValue(ValueNormalizationModes.LOG, vals[i]);
                 }
-                ts.setData(sortedMap);
+                ts.setData(ts.getTimestamps(), vals, n, ts.getGaps(), ts.getGapPolicy());
+                ts.setNormalizationMode(ValueNormalizationModes.LOG);
                 _printTimeserieDebug(ts);
             }
         }
     }
 
     protected void _printTimeserieDebug(Timeseries ts) {
-        log(LOG_DEBUG, getClass().getSimpleName(), "min value " + ts.getTrainMinVal());
-        log(LOG_DEBUG, getClass().getSimpleName(), "max value " + ts.getTrainMaxVal());
-        log(LOG_DEBUG, getClass().getSimpleName(), "avg value " + ts.getTrainAvg());
-        log(LOG_DEBUG, getClass().getSimpleName(), "stddev value " + ts.getTrainStdDev());
+        log(LOG_DEBUG, getClass().getSimpleName(), "min value {}", ts.getTrainMinVal());
+        log(LOG_DEBUG, getClass().getSimpleName(), "max value {}", ts.getTrainMaxVal());
+        log(LOG_DEBUG, getClass().getSimpleName(), "avg value {}", ts.getTrainAvg());
+        log(LOG_DEBUG, getClass().getSimpleName(), "stddev value {}", ts.getTrainStdDev());
     }
 
-    protected void _deriveErrorRate() throws Exception {
-        if (timeseries.containsKey("regular") && timeseries.containsKey("error")) {
+    // Derived series, declared as derive.<name> = <operation>(<left>, <right>) with the optional derive.<name>.min_avg and derive.<name>.alert (over, under or both).
+    // The error rate is declared by default, "none" removes a declaration
+    protected LinkedHashMap<String, DerivedSerie> _derivedSeries() {
+        TreeMap<String, String> specs = new TreeMap<String, String>();
+        specs.put("error_rate", "rate(error, regular)");
+        for (Map.Entry<String, String> kv : settings.entrySet()) {
+            String k = kv.getKey();
+            if (k.startsWith("derive.") && k.indexOf('.', "derive.".length()) < 0) {
+                specs.put(k.substring("derive.".length()), kv.getValue());
+            }
+        }
+
+        LinkedHashMap<String, DerivedSerie> res = new LinkedHashMap<String, DerivedSerie>();
+        for (Map.Entry<String, String> kv : specs.entrySet()) {
+            String name = kv.getKey();
+            if (kv.getValue().trim().equalsIgnoreCase("none")) {
+                continue;
+            }
+            try {
+                DerivedSerie derived = DerivedSerie.parse(name, kv.getValue());
+                boolean errorRate = name.equals("error_rate");
+                derived.setMinAvg(Double.parseDouble(getConfig("derive." + name + ".min_avg", errorRate ? "10" : "0")));
+                String alert = getConfig("derive." + name + ".alert", errorRate ? "over" : "both").trim().toLowerCase();
+                derived.setAlertPolicy(!alert.equals("under"), !alert.equals("over")); // The error rate does not alert if lower than expected
+                res.put(name, derived);
+            } catch (Exception e) {
+                log(LOG_ERROR, getClass().getSimpleName(), e.getMessage());
+            }
+        }
+        return res;
+    }
+
+    // Adds the derived series whose parents were loaded
+    protected void _deriveSeries() {
+        for (DerivedSerie derived : _derivedSeries().values()) {
+            Timeseries left = timeseries.get(derived.getLeft());
+            Timeseries right = timeseries.get(derived.getRight());
+            if (left == null || right == null) {
+                continue;
+            }
+
             // Only run this if average numbers are higher than X (else it will be very noisy)
-            double minAvgTh = 10;
-            if (timeseries.get("regular").getTrainAvg() < minAvgTh || timeseries.get("error").getTrainAvg() < minAvgTh) {
-                log(LOG_DEBUG, getClass().getSimpleName(), "Not deriving error rate timeseries, averages below threshold of " + minAvgTh);
-                return;
-            }
-
-            // Derive error rates from series
-            log(LOG_DEBUG, getClass().getSimpleName(), "Deriving error rate timeseries");
-            Timeseries timeserie = new Timeseries("error_rate", forecastPeriods);
-            TreeMap<Long, Double> sortedMap = new TreeMap<Long, Double>();
-            for (Map.Entry<Long, Double> rts : timeseries.get("regular").getData().entrySet()) {
-                double regular = rts.getValue();
-                double errors = timeseries.get("error").getData().get(rts.getKey());
-                double rate = 0.0D;
-                if (regular > 0 && errors > 0) {
-                    rate = errors / regular;
-                } else if (errors > 0 && rate == 0) {
-                    rate = 1.0; // All errors, prevent infinite
-                }
-                sortedMap.put(rts.getKey(), rate);
+            if (left.getTrainAvg() < derived.getMinAvg() || right.getTrainAvg() < derived.getMinAvg()) {
+                log(LOG_DEBUG, getClass().getSimpleName(), "Not deriving {} timeseries, averages below threshold of {}", derived.getName(), derived.getMinAvg());
+                continue;
+            }
+
+            log(LOG_DEBUG, getClass().getSimpleName(), "Deriving {}", derived);
+            try {
+                timeseries.put(derived.getName(), derived.derive(left, right, forecastPeriods));
+            } catch (Exception e) {
+                log(LOG_ERROR, getClass().getSimpleName(), "Can not derive {}: {}", derived.getName(), e.getMessage());
             }
-            timeserie.setData(sortedMap);
-            timeserie.setAlertPolicy(true, false); // Do not alert if lower than expected
-            timeseries.put("error_rate", timeserie);
         }
     }
 
-    protected void _autoRollup() throws Exception {
-        for (Timeseries ts : timeseries.values()) {
-            while (true) {
-                long size = ts.getData().size();
-                if (size > 1440 && targetTsStepResolution == 60) {
-                    // rollup to 5 minute windows if you have at least a day
-                    targetTsStepResolution = 300;
-                } else if (size > 864 && targetTsStepResolution == 300) {
-                    // rollup to 15 minute windows if you have at least three days
-                    targetTsStepResolution = 900;
-                } else if (size > 480 && targetTsStepResolution == 900) {
-                    // rollup to 30 minute windows if you have at least five days
-                    targetTsStepResolution = 1800;
-                } else {
-                    // No more options
-                    break;
-                }
-                log(LOG_DEBUG, getClass().getSimpleName(), "Rollup resolution to " + targetTsStepResolution);
-                for (Timeseries tsR : timeseries.values()) {
-                    tsR.rollup(targetTsStepResolution);
-                }
+    // Gap policy of a serie, gap_fill.<serie> or gap_fill (zero, previous, linear, mean or missing)
+    public GapPolicies getGapPolicy(String serieName) {
+        String v = getConfig("gap_fill." + serieName, getConfig("gap_fill", GapPolicies.ZERO.name()));
+        try {
+            return GapPolicies.valueOf(v.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log(LOG_WARN, getClass().getSimpleName(), "Unknown gap policy {}, using zero", v);
+            return GapPolicies.ZERO;
+        }
+    }
+
+    // Resolution to roll up to, based on the amount of points the time span would have
+    protected long _autoRollup(long firstTs, long lastTs) {
+        long resolution = targetTsStepResolution;
+        while (true) {
+            long size = (lastTs - (lastTs % resolution) - (firstTs - (firstTs % resolution))) / resolution + 1;
+            if (size > 1440 && resolution == 60) {
+                // rollup to 5 minute windows if you have at least a day
+                resolution = 300;
+            } else if (size > 864 && resolution == 300) {
+                // rollup to 15 minute windows if you have at least three days
+                resolution = 900;
+            } else if (size > 480 && resolution == 900) {
+                // rollup to 30 minute windows if you have at least five days
+                resolution = 1800;
+            } else {
+                // No more options
+                break;
             }
-            break;
+            log(LOG_DEBUG, getClass().getSimpleName(), "Rollup resolution to {}", resolution);
         }
+        return resolution;
     }
 
     // Validate
@@ -291,98 +748,116 @@ public abstract class AbstractDataLoader implements IDataLoader {
         return validate(1);
     }
 
-    // Validate with custom minimum score
+    // Validate the last result with custom minimum score
     public ArrayList<ValidatedTimeserieOutlier> validate(int minScore) {
-        ArrayList<ValidatedTimeserieOutlier> validatedOutliers = new ArrayList<ValidatedTimeserieOutlier>();
+        return validate(lastResult, minScore);
+    }
 
-        // Scored anomalies
-        HashMap<Long, Double> scoredOutliers = new HashMap<Long, Double>();
-        HashMap<Long, Integer> outliersCount = new HashMap<Long, Integer>();
-        for (TimeserieOutlier o : outliers) {
-            log(LOG_INFO, getClass().getSimpleName(), "Outlier at " + o.getTs() + " found by " + o.getAnalyzerName() + " magnitude " + o.getOutlierMagnitude());
-            scoredOutliers.put(o.getTs(), scoredOutliers.getOrDefault(o.getTs(), 0D) + o.getAnalyzer().getOutlierScore() + o.getOutlierMagnitude());
-            outliersCount.put(o.getTs(), outliersCount.getOrDefault(o.getTs(), 0) + 1);
-        }
-        for (TimeserieInlier o : inliers) {
-            log(LOG_DEBUG, getClass().getSimpleName(), "Inlier at " + o.getTs() + " found by " + o.getAnalyzerName());
-            scoredOutliers.put(o.getTs(), scoredOutliers.getOrDefault(o.getTs(), 0D) - o.getAnalyzer().getInlierScore());
+    // Validate a specific result, safe to call concurrently. Details are built when a validated outlier is asked for them
+    public ArrayList<ValidatedTimeserieOutlier> validate(AnalysisResult result, int minScore) {
+        long start = System.nanoTime();
+        ArrayList<ValidatedTimeserieOutlier> validatedOutliers = new ArrayList<ValidatedTimeserieOutlier>();
+        if (isLogEnabled(LOG_INFO, getClass().getSimpleName())) {
+            for (TimeserieOutlier o : result.getOutliers()) {
+                log(LOG_INFO, getClass().getSimpleName(), "Outlier at {} found by {} magnitude {}", o.getTs(), o.getAnalyzerName(), o.getOutlierMagnitude());
+            }
         }
 
+        // Scored anomalies per serie and timestamp
+        ValidationScores scores = score(result);
+        TimestampScores combined = scores.getCombined();
+
         // Did we find the expected ones?
         for (Long expectedErr : expectedErrors) {
-            int matches = outliersCount.get(expectedErr);
-            double score = scoredOutliers.get(expectedErr);
-            log(LOG_DEBUG, getClass().getSimpleName(), "Error at " + expectedErr + " found " + matches + " time(s) with score " + score);
+            int matches = combined.getOutliers(expectedErr);
+            log(LOG_DEBUG, getClass().getSimpleName(), "Error at {} found {} time(s) with score {}", expectedErr, matches, combined.getScore(expectedErr));
 
             // Not found?
             if (matches < 1) {
-                log(LOG_ERROR, getClass().getSimpleName(), "Did not find error on " + expectedErr);
+                log(LOG_ERROR, getClass().getSimpleName(), "Did not find error on {}", expectedErr);
             }
         }
 
         // Real unexpected errors
-        for (Map.Entry<Long, Double> kv : scoredOutliers.entrySet()) {
-            // Minimum score
-            if (kv.getValue() < minScore) {
-                continue;
+        ValidationDetails details = null;
+        for (String serieName : scores.getSerieNames()) {
+            TimestampScores serieScores = scores.getSerie(serieName);
+            for (int i = 0; i < serieScores.size(); i++) {
+                // Minimum score
+                double score = serieScores.getScoreAt(i);
+                if (score < minScore) {
+                    continue;
+                }
+
+                // Validated outlier
+                long ts = serieScores.getTs(i);
+                if (details == null) {
+                    details = new ValidationDetails();
+                }
+                validatedOutliers.add(new ValidatedTimeserieOutlier(serieName, ts, score, combined.getScore(ts), scores.getOutliers(serieName, ts), details));
+
+                // Expected errors are not shown as error message
+                if (!expectedErrors.contains(ts)) {
+                    log(LOG_ERROR, getClass().getSimpleName(), "Found unexpected error in {} at {} net score {}", serieName, ts, score);
+                }
             }
+        }
 
-            // Validated outlier
-            ValidatedTimeserieOutlier vtso = new ValidatedTimeserieOutlier(kv.getKey(), kv.getValue());
+        // List of outliers
+        metrics.recordLatency(IMetrics.STAGE_VALIDATE, null, System.nanoTime() - start);
+        return validatedOutliers;
+    }
+
+    // Net scores of a result per serie and timestamp, outliers add their analyzer's outlier score and magnitude, inliers subtract the inlier score
+    public ValidationScores score(AnalysisResult result) {
+        return new ValidationScores(result);
+    }
+
+    // Details of the validated outliers of one validate call, the last points are copied at validation and turned into JSON once on first use
+    private class ValidationDetails implements ValidatedTimeserieOutlier.DetailsBuilder {
+        private static final int LAST_POINTS = 10;
+        private final LinkedHashMap<String, double[]> lastPoints = new LinkedHashMap<String, double[]>();
+        private JsonObject dataSnapshot;
+
+        private ValidationDetails() {
+            for (Map.Entry<String, Timeseries> tskv : timeseries.entrySet()) {
+                int n = tskv.getValue().size();
+                lastPoints.put(tskv.getKey(), Arrays.copyOfRange(tskv.getValue().getValues(), Math.max(0, n - LAST_POINTS), n));
+            }
+        }
 
-            // Details about the outliers
+        public synchronized JsonObject build(ValidatedTimeserieOutlier vtso) {
             JsonObject details = new JsonObject();
             JsonArray outlierDetails = new JsonArray();
-            for (TimeserieOutlier o : outliers) {
+            for (TimeserieOutlier o : vtso.getOutliers()) {
                 outlierDetails.add(o.getJsonObjectWithDetails());
             }
             details.add("outliers", outlierDetails);
+            details.add("timeseries", _dataSnapshot());
+            return details;
+        }
 
-            // Data snapshot (last 10 data points)
-            int lastPoints = 10;
-            JsonObject dataSnapshot = new JsonObject();
-            for (Map.Entry<String, Timeseries> tskv : timeseries.entrySet()) {
+        // Last points of every serie, in chronological order
+        private JsonObject _dataSnapshot() {
+            if (dataSnapshot != null) {
+                return dataSnapshot;
+            }
+            dataSnapshot = new JsonObject();
+            for (Map.Entry<String, double[]> kv : lastPoints.entrySet()) {
                 JsonArray dps = new JsonArray();
-                // Get data in reverse order
-                NavigableSet<Long> dks = tskv.getValue().getData().descendingKeySet();
-
-                // First x points (which are actually the last x)
-                int i=0;
-                Iterator<Long> it = dks.iterator();
-                TreeMap<Long, Double> list = new TreeMap<Long, Double>();
-                while(i<lastPoints && it.hasNext()) {
-                    Long ts = it.next();
-                    list.put(ts, tskv.getValue().getData().get(ts));
-                    i++;
-                }
-                for (Double val : list.values()) {
+                for (double val : kv.getValue()) {
                     dps.add(new JsonPrimitive(val));
                 }
-
-                // Add points
-                dataSnapshot.add(tskv.getKey(), dps);
-            }
-            details.add("timeseries", dataSnapshot);
-
-            // Details
-            vtso.setDetails(details);
-
-            // Add to list of results
-            validatedOutliers.add(vtso);
-
-            // Expected errors are not shown as error message
-            if (!expectedErrors.contains(kv.getKey())) {
-                log(LOG_ERROR, getClass().getSimpleName(), "Found unexpected error at " + kv.getKey() + " net score " + kv.getValue());
+                dataSnapshot.add(kv.getKey(), dps);
             }
+            return dataSnapshot;
         }
-
-        // List of outliers
-        return validatedOutliers;
     }
 
 
     // Load data
     public void load() throws Exception {
+        long start = System.nanoTime();
         // Load settings
         HashMap<String, String> dataSettings = loadSettings();
         for (Map.Entry<String, String> kv : dataSettings.entrySet()) {
@@ -390,25 +865,20 @@ public abstract class AbstractDataLoader implements IDataLoader {
         }
 
         // Load raw
-        HashMap<String, HashMap<String, String>> raw = loadRawData();
-        log(LOG_DEBUG, getClass().getSimpleName(), raw.toString());
+        HashMap<String, RawSeries> raw = loadRawSeries();
+        log(LOG_DEBUG, getClass().getSimpleName(), "{}", raw);
 
         // Process
         processData(raw);
-        log(LOG_DEBUG, getClass().getSimpleName(), timeseries.toString());
+        log(LOG_DEBUG, getClass().getSimpleName(), "{}", timeseries);
 
         // Load expected errors
-        expectedErrors = loadExpectedErrors();
-        ArrayList<Long> tmp = new ArrayList<Long>();
-        for (Long l : expectedErrors) {
-            long lb = l - (l % targetTsStepResolution);
-            if (tmp.contains(lb)) {
-                continue;
-            }
-            tmp.add(lb);
+        expectedErrors.clear();
+        for (Long l : loadExpectedErrors()) {
+            expectedErrors.add(l - (l % targetTsStepResolution));
         }
-        expectedErrors = tmp;
-        log(LOG_DEBUG, getClass().getSimpleName(), expectedErrors.toString());
+        log(LOG_DEBUG, getClass().getSimpleName(), "{}", expectedErrors);
+        metrics.recordLatency(IMetrics.STAGE_LOAD, null, System.nanoTime() - start);
     }
 
     public double normalizeValue(ValueNormalizationModes mode, double in) {
@@ -441,26 +911,19 @@ public abstract class AbstractDataLoader implements IDataLoader {
         return normalizeValue(valueNormalizationMode, in);
     }
 
-    private class AnalyzerRunnable implements Runnable {
+    private class AnalyzerCallable implements Callable<TimeserieAnalyzerResult> {
         private AbstractDataLoader adl;
         private ITimeserieAnalyzer analyzer;
+        private volatile long startedAt = 0L;
 
-        public AnalyzerRunnable(AbstractDataLoader adl, ITimeserieAnalyzer analyzer) {
+        public AnalyzerCallable(AbstractDataLoader adl, ITimeserieAnalyzer analyzer) {
             this.adl = adl;
             this.analyzer = analyzer;
         }
 
-        public void run() {
-            TimeserieAnalyzerResult res = analyzer.analyze(adl, timeseries);
-            List<TimeserieOutlier> analyzerOutliers = res.getOutliers();
-            List<TimeserieInlier> analyzerInliers = res.getInliers();
-            if (analyzerOutliers.isEmpty() && analyzerInliers.isEmpty()) {
-                // Not active
-                return;
-            }
-            adl.activeAnalyzers.incrementAndGet();
-            outliers.addAll(analyzerOutliers);
-            inliers.addAll(analyzerInliers);
+        public TimeserieAnalyzerResult call() {
+            startedAt = System.currentTimeMillis();
+            return adl.runAnalyzer(analyzer, timeseries);
         }
     }
 
@@ -0,0 +1,20 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Forecast model that only predicts expected values, bounds come from a band
+ */
+public abstract class AbstractForecastModel implements IForecastModel {
+    private final ForecastBand band;
+
+    protected AbstractForecastModel(ForecastBand band) {
+        this.band = band;
+    }
+
+    // Expected value for every timestamp
+    protected abstract void predict(long[] ts, double[] outExpected);
+
+    public void forecast(long[] ts, double[] outExpected, double[] outLower, double[] outUpper) {
+        predict(ts, outExpected);
+        band.apply(outExpected, outLower, outUpper, ts.length);
+    }
+}
@@ -0,0 +1,53 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Polynomial fit over the train window, validated and classified the same way for every degree, subclasses only pick the band
+ */
+public abstract class AbstractPolynomialRegressionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
+    private final int degree;
+
+    protected AbstractPolynomialRegressionTimeserieAnalyzer(int degree) {
+        this.degree = degree;
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    // Band around the fitted curve, relMse is the mean square error relative to the total sum of squares
+    protected abstract ForecastBand band(Timeseries timeserie, double relMse);
+
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        // Train, single pass over the primitive train window without the missing ranges
+        PolynomialRegression m = new PolynomialRegression(degree);
+        try {
+            m.addData(timeserie.getTimestamps(), timeserie.getTrainValues(), 0, timeserie.getTrainSize(), timeserie.getMissing());
+            m.fit();
+        } catch (Exception e) {
+            dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unable to fit degree {} polynomial: {}", degree, e.getMessage());
+            return;
+        }
+        m.evaluate(timeserie.getTimestamps(), timeserie.getTrainValues(), 0, timeserie.getTrainSize(), timeserie.getMissing());
+
+        // Avg
+        double avg = timeserie.getTrainAvg();
+
+        // Total sum of squares
+        double tsos = timeserie.getTrainStatistics().getTotalSumSquares();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = {}", avg);
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum squares = {}", tsos);
+
+        // Validate, total sum of squares must be bigger than 0 as else there is no delta between avg and data values
+        double mse = m.getMSE();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = {}", mse);// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute deviation = {}", m.getMAD());// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute percentage error = {}", m.getMAPE());// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Akaike Information Criteria = {}", m.getAIC());// Reliable? less is better
+        if (!reliableFit(dataLoader, timeserie, mse, m.getMAD(), 0.02D)) {
+            return;
+        }
+
+        // Classify
+        classifyForecast(dataLoader, res, timeserie, new PolynomialForecastModel(m, band(timeserie, mse / tsos)));
+    }
+}
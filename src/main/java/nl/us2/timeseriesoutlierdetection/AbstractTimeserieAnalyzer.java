@@ -1,9 +1,12 @@
 package nl.us2.timeseriesoutlierdetection;
 
+import java.util.Arrays;
+import java.util.HashMap;
+
 /**
  * Created by robin on 21/06/15.
  */
-public class AbstractTimeserieAnalyzer {
+public abstract class AbstractTimeserieAnalyzer {
     public void log (String msg) {
         System.out.println(msg);
     }
@@ -14,6 +17,130 @@ public class AbstractTimeserieAnalyzer {
     protected static final int DEFAULT_INLIER_SCORE = 1;
     protected static final int DEFAULT_OUTLIER_SCORE = 3;
 
+    // Analyzes the series one by one, stops once the run is cancelled, e.g. when its deadline passed
+    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
+        TimeserieAnalyzerResult res = newResultSet();
+        for (Timeseries timeserie : timeseries.values()) {
+            if (isCancelled()) {
+                break;
+            }
+            analyzeSerie(dataLoader, res, timeserie);
+        }
+        return res;
+    }
+
+    // Trains on and classifies one serie, outliers and inliers are added to res
+    protected abstract void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie);
+
+    // Classifies the classify window of a serie with a streaming model, without learning from it
+    protected void classifyStreaming(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie, IStreamingTimeserieModel model) {
+        long start = System.nanoTime();
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getValues();
+        GapRanges missing = timeserie.getMissing();
+        int gap = missing.indexAfter(timeserie.getClassifyStart());
+        for (int i = timeserie.getClassifyStart(); i < timeserie.size(); i++) {
+            if (gap < missing.size() && i >= missing.getStart(gap)) {
+                i = missing.getEnd(gap++) - 1;
+                continue;
+            }
+            TimeserieOutlier o = model.classify(timestamps[i], values[i]);
+            if (o == null) {
+                continue;
+            }
+            if (o instanceof TimeserieInlier) {
+                res.addInlier((TimeserieInlier) o);
+            } else {
+                res.addOutlier(o);
+            }
+        }
+        classified(dataLoader, start, timeserie);
+    }
+
+    // Classifies the classify window of a serie with one batch forecast
+    protected void classifyForecast(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie, IForecastModel model) {
+        long start = System.nanoTime();
+        int from = timeserie.getClassifyStart();
+        int n = timeserie.size() - from;
+        long[] ts = Arrays.copyOfRange(timeserie.getTimestamps(), from, from + n);
+        double[] expected = new double[n];
+        double[] lower = new double[n];
+        double[] upper = new double[n];
+        model.forecast(ts, expected, lower, upper);
+        _classifyBounds(res, timeserie, expected, lower, upper);
+        classified(dataLoader, start, timeserie);
+    }
+
+    // Classifies the classify window against precomputed bounds, index 0 is the first classify point
+    protected void classifyBounds(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie, double[] expected, double[] lower, double[] upper) {
+        long start = System.nanoTime();
+        _classifyBounds(res, timeserie, expected, lower, upper);
+        classified(dataLoader, start, timeserie);
+    }
+
+    private void _classifyBounds(TimeserieAnalyzerResult res, Timeseries timeserie, double[] expected, double[] lower, double[] upper) {
+        int from = timeserie.getClassifyStart();
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getValues();
+        GapRanges missing = timeserie.getMissing();
+        int gap = missing.indexAfter(from);
+        for (int i = 0; i < timeserie.size() - from; i++) {
+            // Skip missing ranges
+            if (gap < missing.size() && from + i >= missing.getStart(gap)) {
+                i = missing.getEnd(gap++) - from - 1;
+                continue;
+            }
+            double val = values[from + i];
+            if (val < lower[i] || val > upper[i]) {
+                TimeserieOutlier outlier = new TimeserieOutlier(this, timeserie.getSerieName(), timestamps[from + i], val, expected[i], lower[i], upper[i]);
+                if (!timeserie.validateOutlier(outlier)) {
+                    continue;
+                }
+                res.addOutlier(outlier);
+            } else {
+                res.addInlier(new TimeserieInlier(this, timeserie.getSerieName(), timestamps[from + i], val, expected[i], lower[i], upper[i]));
+            }
+        }
+    }
+
+    // Records the classify latency since start and the number of points classified, missing points in the classify window are not
+    protected void classified(AbstractDataLoader dataLoader, long start, Timeseries timeserie) {
+        IMetrics metrics = dataLoader.getMetrics();
+        metrics.recordLatency(IMetrics.STAGE_CLASSIFY, getClass().getSimpleName(), System.nanoTime() - start);
+        int points = timeserie.getClassifySize() - timeserie.getMissing().pointsIn(timeserie.getClassifyStart(), timeserie.size());
+        metrics.increment(IMetrics.POINTS_CLASSIFIED, getClass().getSimpleName(), points);
+    }
+
+    // Logs why a model is not used for a serie and counts it
+    protected void unreliable(AbstractDataLoader dataLoader, String format, Object... args) {
+        dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), format, args);
+        dataLoader.getMetrics().increment(IMetrics.UNRELIABLE, getClass().getSimpleName(), 1L);
+    }
+
+    // Crosschecks a fit against the training data, mse relative to the total sum of squares must stay under maxRelMse and the mean absolute error under the standard deviation and the average
+    protected boolean reliableFit(AbstractDataLoader dataLoader, Timeseries timeserie, double mse, double mad, double maxRelMse) {
+        double tsos = timeserie.getTrainStatistics().getTotalSumSquares();
+        double relMse = mse / tsos;
+        if (relMse > maxRelMse && tsos > 0D) {
+            unreliable(dataLoader, "Unreliable based on relative mean square error crosscheck (is {} exceeds {})", relMse, maxRelMse);
+            return false;
+        }
+        if (timeserie.getTrainStdDev() > 0 && mad > timeserie.getTrainStdDev()) {
+            unreliable(dataLoader, "Unreliable based on MAD (mean absolute error) / standard deviation crosscheck (MAD {} exceeds stddev {})", mad, timeserie.getTrainStdDev());
+            return false;
+        }
+        if (mad > timeserie.getTrainAvg()) {
+            unreliable(dataLoader, "Unreliable based on MAD (mean absolute error) / average crosscheck (MAD {} exceeds avg {})", mad, timeserie.getTrainAvg());
+            return false;
+        }
+        return true;
+    }
+
+    // Analysis runs are cancelled by interrupting their thread, long running analyzers should check this between steps
+    protected boolean isCancelled() {
+        return Thread.currentThread().isInterrupted();
+    }
+
     public int getInlierScore() {
         return DEFAULT_INLIER_SCORE;
     }
@@ -0,0 +1,63 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one analyze call, built by a single thread from the per task results and immutable once returned
+ */
+public class AnalysisResult {
+    private final ArrayList<TimeserieOutlier> outliers;
+    private final ArrayList<TimeserieInlier> inliers;
+    private final ArrayList<String> timedOutAnalyzers;
+    private int activeAnalyzers = 0;
+
+    public AnalysisResult() {
+        outliers = new ArrayList<TimeserieOutlier>();
+        inliers = new ArrayList<TimeserieInlier>();
+        timedOutAnalyzers = new ArrayList<String>();
+    }
+
+    // Merges one task result, returns whether it contained anything
+    protected boolean merge(TimeserieAnalyzerResult res) {
+        if (res.getOutliers().isEmpty() && res.getInliers().isEmpty()) {
+            return false;
+        }
+        outliers.addAll(res.getOutliers());
+        inliers.addAll(res.getInliers());
+        return true;
+    }
+
+    protected void setActiveAnalyzers(int x) {
+        activeAnalyzers = x;
+    }
+
+    protected void addTimedOutAnalyzer(String name) {
+        if (!timedOutAnalyzers.contains(name)) {
+            timedOutAnalyzers.add(name);
+        }
+    }
+
+    public List<TimeserieOutlier> getOutliers() {
+        return Collections.unmodifiableList(outliers);
+    }
+
+    public List<TimeserieInlier> getInliers() {
+        return Collections.unmodifiableList(inliers);
+    }
+
+    // Analyzers that produced at least one outlier or inlier
+    public int getActiveAnalyzers() {
+        return activeAnalyzers;
+    }
+
+    // Analyzers that were cancelled by a deadline, their results are not included
+    public List<String> getTimedOutAnalyzers() {
+        return Collections.unmodifiableList(timedOutAnalyzers);
+    }
+
+    public boolean isTimedOut() {
+        return !timedOutAnalyzers.isEmpty();
+    }
+}
@@ -0,0 +1,269 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Analyzes many loaders on one shared work stealing pool, every (serie x analyzer) pair is a separate work unit
+ */
+public class BatchAnalyzerEngine {
+    public static final long DEFAULT_DEADLINE_MS = 60000L;
+    private static final int DEFAULT_UNITS_PER_THREAD = 64;
+
+    private final ForkJoinPool pool;
+    private final Semaphore inFlight; // Backpressure, submitters block once this many units are queued or running
+    private final int maxInFlightUnits;
+    private final long deadlineMs;
+
+    public BatchAnalyzerEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchAnalyzerEngine(int parallelism) {
+        this(parallelism, parallelism * DEFAULT_UNITS_PER_THREAD, DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * @param parallelism Number of worker threads
+     * @param maxInFlightUnits Maximum number of work units queued or running at once
+     * @param deadlineMs Time a job may take from submit until its results are collected
+     */
+    public BatchAnalyzerEngine(int parallelism, int maxInFlightUnits, long deadlineMs) {
+        pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.maxInFlightUnits = Math.max(1, maxInFlightUnits);
+        inFlight = new Semaphore(this.maxInFlightUnits);
+        this.deadlineMs = deadlineMs;
+    }
+
+    // Submit all work units of a loaded loader, blocks while the engine is saturated
+    public Job submit(AbstractDataLoader loader, List<ITimeserieAnalyzer> analyzers) throws InterruptedException {
+        // Units in analyzer order, then serie order, so merged results are ordered like a sequential analyze
+        List<Unit> units = new ArrayList<Unit>();
+        for (int a = 0; a < analyzers.size(); a++) {
+            for (Map.Entry<String, Timeseries> kv : loader.getTimeseries().entrySet()) {
+                HashMap<String, Timeseries> serie = new HashMap<String, Timeseries>(2);
+                serie.put(kv.getKey(), kv.getValue());
+                units.add(new Unit(analyzers.get(a), a, serie));
+            }
+        }
+
+        Job job = new Job(loader, analyzers.size(), units.size(), System.currentTimeMillis() + deadlineMs);
+        for (int i = 0; i < units.size(); i++) {
+            job.units[i] = new UnitRunnable(job, units.get(i), i, inFlight);
+        }
+        for (int i = 0; i < units.size(); i++) {
+            inFlight.acquire();
+            pool.execute(job.units[i]);
+        }
+        loader.getMetrics().gauge(IMetrics.POOL_QUEUE, getClass().getSimpleName(), getQueueDepth());
+        return job;
+    }
+
+    // Submit and collect a whole batch, results are stored in the loaders so they can be validated
+    public List<Job> analyzeAll(List<AbstractDataLoader> loaders, List<ITimeserieAnalyzer> analyzers) throws InterruptedException {
+        List<Job> jobs = new ArrayList<Job>(loaders.size());
+        for (AbstractDataLoader loader : loaders) {
+            jobs.add(submit(loader, analyzers));
+        }
+        for (Job job : jobs) {
+            job.await();
+        }
+        return jobs;
+    }
+
+    // Units queued or running
+    public int getQueueDepth() {
+        return maxInFlightUnits - inFlight.availablePermits();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    private static class Unit {
+        private final ITimeserieAnalyzer analyzer;
+        private final int analyzerIndex;
+        private final HashMap<String, Timeseries> serie;
+
+        private Unit(ITimeserieAnalyzer analyzer, int analyzerIndex, HashMap<String, Timeseries> serie) {
+            this.analyzer = analyzer;
+            this.analyzerIndex = analyzerIndex;
+            this.serie = serie;
+        }
+    }
+
+    private static class UnitRunnable implements Runnable {
+        private final Job job;
+        private final Unit unit;
+        private final int slot;
+        private final Semaphore inFlight;
+        private Thread runner;
+        private boolean finished = false;
+        private boolean skipped = false; // Not run because the job was cancelled or past its deadline
+
+        private UnitRunnable(Job job, Unit unit, int slot, Semaphore inFlight) {
+            this.job = job;
+            this.unit = unit;
+            this.slot = slot;
+            this.inFlight = inFlight;
+        }
+
+        public void run() {
+            try {
+                // Skip work that can no longer make the deadline
+                synchronized (this) {
+                    if (job.cancelled || System.currentTimeMillis() > job.deadline) {
+                        skipped = true;
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                TimeserieAnalyzerResult res = job.loader.runAnalyzer(unit.analyzer, unit.serie);
+                // A unit interrupted by the deadline finishes after the merge, its (partial) result is dropped
+                if (!job.cancelled) {
+                    job.results.set(slot, res);
+                }
+            } catch (Exception e) {
+                job.loader.log(job.loader.LOG_ERROR, unit.analyzer.getClass().getSimpleName(), e.getMessage());
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    finished = true;
+                    // Pool threads are reused, don't leak a cancel into the next unit
+                    Thread.interrupted();
+                }
+                inFlight.release();
+                job.done.countDown();
+            }
+        }
+
+        // Cooperative cancel, returns false if the unit already finished
+        private synchronized boolean cancel() {
+            if (finished) {
+                return false;
+            }
+            if (runner != null) {
+                runner.interrupt();
+            }
+            return true;
+        }
+
+        private synchronized boolean isSkipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * Work units of one loader, every unit writes its own result slot, the slots are merged once when collected
+     */
+    public static class Job {
+        private final AbstractDataLoader loader;
+        private final int numAnalyzers;
+        private final long deadline;
+        private final AtomicReferenceArray<TimeserieAnalyzerResult> results;
+        private final CountDownLatch done;
+        private final UnitRunnable[] units;
+        private volatile boolean cancelled = false;
+        private boolean collected = false;
+        private boolean timedOut = false;
+        private List<String> timedOutAnalyzers;
+        private AnalysisResult result;
+
+        private Job(AbstractDataLoader loader, int numAnalyzers, int numUnits, long deadline) {
+            this.loader = loader;
+            this.numAnalyzers = numAnalyzers;
+            this.deadline = deadline;
+            results = new AtomicReferenceArray<TimeserieAnalyzerResult>(numUnits);
+            done = new CountDownLatch(numUnits);
+            units = new UnitRunnable[numUnits];
+        }
+
+        // Wait for all units or the deadline, then merge what was collected into the loader
+        public synchronized Job await() throws InterruptedException {
+            if (collected) {
+                return this;
+            }
+            long wait = deadline - System.currentTimeMillis();
+            timedOut = !done.await(Math.max(0L, wait), TimeUnit.MILLISECONDS);
+            timedOutAnalyzers = new ArrayList<String>();
+            boolean[] dropped = new boolean[numAnalyzers]; // By analyzer index, any unit cancelled or skipped
+            if (timedOut) {
+                loader.log(loader.LOG_ERROR, getClass().getSimpleName(), "Deadline passed with {} unit(s) unfinished", done.getCount());
+                cancelled = true;
+                for (UnitRunnable u : units) {
+                    if (u.cancel()) {
+                        dropped[u.unit.analyzerIndex] = true;
+                    }
+                }
+            }
+
+            // Units dropped unrun count as timed out as well, even when the latch reached zero
+            for (UnitRunnable u : units) {
+                if (u.isSkipped()) {
+                    timedOut = true;
+                    dropped[u.unit.analyzerIndex] = true;
+                }
+            }
+            // Results that arrive from now on are not stored
+            cancelled = true;
+
+            // Merge, like runAnalysis an analyzer that timed out on any serie contributes nothing
+            result = new AnalysisResult();
+            for (UnitRunnable u : units) {
+                String name = u.unit.analyzer.getClass().getSimpleName();
+                if (dropped[u.unit.analyzerIndex] && !timedOutAnalyzers.contains(name)) {
+                    timedOutAnalyzers.add(name);
+                    result.addTimedOutAnalyzer(name);
+                }
+            }
+            boolean[] active = new boolean[numAnalyzers];
+            int numActive = 0;
+            for (int i = 0; i < results.length(); i++) {
+                TimeserieAnalyzerResult res = results.getAndSet(i, null);
+                int a = units[i].unit.analyzerIndex;
+                if (res == null || dropped[a] || !result.merge(res)) {
+                    continue;
+                }
+                if (!active[a]) {
+                    active[a] = true;
+                    numActive++;
+                }
+            }
+            result.setActiveAnalyzers(numActive);
+            if (numActive < 1) {
+                loader.log(loader.LOG_ERROR, loader.getClass().getSimpleName(), "No analyzers were taken into account");
+            }
+            loader.setLastResult(result);
+            collected = true;
+            return this;
+        }
+
+        public AbstractDataLoader getLoader() {
+            return loader;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        // Analyzers with at least one unit cancelled or skipped by the deadline
+        public List<String> getTimedOutAnalyzers() {
+            return timedOutAnalyzers;
+        }
+
+        public AnalysisResult getResult() {
+            return result;
+        }
+    }
+}
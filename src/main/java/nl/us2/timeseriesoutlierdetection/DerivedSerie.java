@@ -0,0 +1,170 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serie computed from two other series in one aligned pass, declared in the settings as derive.name = operation(left, right)
+ */
+public class DerivedSerie {
+    private static final Pattern SPEC = Pattern.compile("^\\s*(\\w+)\\s*\\(\\s*([^,\\s]+)\\s*,\\s*([^)\\s]+)\\s*\\)\\s*$");
+
+    private final String name;
+    private final DerivedSerieOperations operation;
+    private final String left;
+    private final String right;
+    private double minAvg = 0.0D; // Both parents need at least this training average, ratios of small numbers are very noisy
+    private boolean alertOver = true;
+    private boolean alertUnder = true;
+
+    public DerivedSerie(String name, DerivedSerieOperations operation, String left, String right) {
+        this.name = name;
+        this.operation = operation;
+        this.left = left;
+        this.right = right;
+    }
+
+    // Declaration like "rate(error, regular)"
+    public static DerivedSerie parse(String name, String spec) throws Exception {
+        Matcher m = SPEC.matcher(spec);
+        if (!m.matches()) {
+            throw new Exception("Invalid derived serie " + name + ": " + spec);
+        }
+        DerivedSerieOperations operation;
+        try {
+            operation = DerivedSerieOperations.valueOf(m.group(1).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Unknown operation " + m.group(1) + " of derived serie " + name);
+        }
+        return new DerivedSerie(name, operation, m.group(2), m.group(3));
+    }
+
+    public double apply(double l, double r) {
+        switch (operation) {
+            case SUM:
+                return l + r;
+            case DIFFERENCE:
+                return l - r;
+            case RATIO:
+                return r != 0 ? l / r : 0.0D;
+            case RATE:
+            default:
+                if (l <= 0) {
+                    return 0.0D;
+                }
+                return r > 0 ? l / r : 1.0D; // All left, prevent infinite
+        }
+    }
+
+    // Values over the timestamps both parents have, the timestamp column of the left parent is shared when they line up
+    public Timeseries derive(Timeseries l, Timeseries r, long forecastPeriods) throws Exception {
+        int ln = l.size();
+        int rn = r.size();
+        long[] lts = l.getTimestamps();
+        long[] rts = r.getTimestamps();
+        double[] lv = l.getValues();
+        double[] rv = r.getValues();
+        Timeseries timeserie = new Timeseries(name, forecastPeriods);
+        timeserie.setAlertPolicy(alertOver, alertUnder);
+
+        // Same buckets, the usual case for series of one source
+        GapRanges lg = l.getGaps();
+        GapRanges rg = r.getGaps();
+        GapPolicies gapPolicy = l.getGapPolicy() == GapPolicies.MISSING ? l.getGapPolicy() : r.getGapPolicy();
+        if (ln == rn) {
+            double[] vals = new double[ln];
+            int i = 0;
+            for (; i < ln && lts[i] == rts[i]; i++) {
+                vals[i] = apply(lv[i], rv[i]);
+            }
+            if (i == ln) {
+                timeserie.setData(lts, vals, ln, _union(lg, rg), gapPolicy);
+                return timeserie;
+            }
+        }
+
+        // Merge join on timestamp, both columns are sorted
+        int capacity = Math.min(ln, rn);
+        long[] ts = new long[capacity];
+        double[] vals = new double[capacity];
+        GapRanges gaps = lg.isEmpty() && rg.isEmpty() ? GapRanges.NONE : new GapRanges();
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ln && j < rn) {
+            if (lts[i] < rts[j]) {
+                i++;
+            } else if (lts[i] > rts[j]) {
+                j++;
+            } else {
+                if (gaps != GapRanges.NONE && (lg.contains(i) || rg.contains(j))) {
+                    gaps.add(n, n + 1);
+                }
+                ts[n] = lts[i];
+                vals[n++] = apply(lv[i++], rv[j++]);
+            }
+        }
+        timeserie.setData(ts, vals, n, gaps, gapPolicy);
+        return timeserie;
+    }
+
+    // Gaps of either parent, for parents with the same buckets. Always a new instance, appends to the derived serie extend it
+    private static GapRanges _union(GapRanges a, GapRanges b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return GapRanges.NONE;
+        }
+        GapRanges res = new GapRanges();
+        int i = 0;
+        int j = 0;
+        int start = -1;
+        int end = -1;
+        while (i < a.size() || j < b.size()) {
+            // Next range by start
+            boolean fromA = j >= b.size() || (i < a.size() && a.getStart(i) <= b.getStart(j));
+            int s = fromA ? a.getStart(i) : b.getStart(j);
+            int e = fromA ? a.getEnd(i++) : b.getEnd(j++);
+            if (s <= end) {
+                end = Math.max(end, e);
+                continue;
+            }
+            res.add(start, end);
+            start = s;
+            end = e;
+        }
+        res.add(start, end);
+        return res;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DerivedSerieOperations getOperation() {
+        return operation;
+    }
+
+    public String getLeft() {
+        return left;
+    }
+
+    public String getRight() {
+        return right;
+    }
+
+    public double getMinAvg() {
+        return minAvg;
+    }
+
+    public void setMinAvg(double minAvg) {
+        this.minAvg = minAvg;
+    }
+
+    public void setAlertPolicy(boolean over, boolean under) {
+        alertOver = over;
+        alertUnder = under;
+    }
+
+    public String toString() {
+        return name + " = " + operation.name().toLowerCase() + "(" + left + ", " + right + ")";
+    }
+}
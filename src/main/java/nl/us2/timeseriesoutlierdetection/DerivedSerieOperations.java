@@ -0,0 +1,11 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Operations of a derived serie on the values of its two parents
+ */
+public enum DerivedSerieOperations {
+    SUM, // left + right
+    DIFFERENCE, // left - right
+    RATIO, // left / right, 0 if right is 0
+    RATE // left / right for counts, 0 without left and 1 when everything is left (e.g. errors without requests)
+}
@@ -9,7 +9,6 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,57 +64,42 @@ public class FileDataLoader extends AbstractDataLoader {
 
 
     public HashMap<String, HashMap<String, String>> loadRawData() throws Exception {
-        // Series holders
-        HashMap<String, HashMap<String, String>> series = new HashMap<String, HashMap<String, String>>();
-        series.put("regular", new HashMap<String, String>());
-        series.put("error", new HashMap<String, String>());
-
-        // Read file
-        List<String> lines = FileUtils.readLines(new File(getConfig("path", null)));
-
-        // Col indices
-        int colTs = -1;
-        int colRegular = -1;
-        int colError = -1;
-
-        // Iterate lines
-        long i = 0L;
-        for (String line : lines) {
-            // Line
-            line = line.trim();
-            if (line.isEmpty()) {
-                continue;
-            }
+        return _rawDataAsStrings();
+    }
 
-            // Split
-            String[] cols = line.split("\\s+");
+    public void loadRawData(final RawSeriesSink sink) throws Exception {
+        // Series names by index
+        final String[] seriesByIndex = new String[] { "regular", "error" };
 
-            // Mapping of series
-            if (i == 0L) {
-                int colI=0;
-                for (String col : cols) {
-                    if (col.equals("ts")) {
-                        colTs = colI;
-                    } else if (col.equals("regular")) {
-                        colRegular = colI;
-                    } else if (col.startsWith("error")) {
-                        colError = colI;
+        // Stream file, "mmap" maps the file, "stream" (default) reads it through a fixed size buffer
+        boolean memoryMapped = getConfig("parser_mode", "stream").equalsIgnoreCase("mmap");
+        TsvStreamParser parser = new TsvStreamParser("ts", memoryMapped);
+        parser.parse(new File(getConfig("path", null)), new TsvStreamParser.Handler() {
+            public int[] header(String[] columns) {
+                // Mapping of series
+                int[] mapping = new int[columns.length];
+                int colRegular = -1;
+                int colError = -1;
+                for (int i = 0; i < columns.length; i++) {
+                    mapping[i] = -1;
+                    if (columns[i].equals("regular")) {
+                        colRegular = i;
+                    } else if (columns[i].startsWith("error")) {
+                        colError = i;
                     }
-                    colI++;
                 }
-            } else {
-                String tsStr = cols[colTs];
                 if (colRegular != -1) {
-                    series.get("regular").put(tsStr, cols[colRegular]);
+                    mapping[colRegular] = 0;
                 }
                 if (colError != -1) {
-                    series.get("error").put(tsStr, cols[colError]);
+                    mapping[colError] = 1;
                 }
+                return mapping;
             }
 
-            // Next line
-            i++;
-        }
-        return series;
+            public void point(int serie, long ts, double val) {
+                sink.add(seriesByIndex[serie], ts, val);
+            }
+        });
     }
 }
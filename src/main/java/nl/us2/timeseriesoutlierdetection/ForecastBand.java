@@ -0,0 +1,64 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Acceptable band around expected values, applied to whole arrays
+ */
+public final class ForecastBand {
+    private static final int ABSOLUTE = 0;
+    private static final int RELATIVE = 1;
+    private static final int RELATIVE_OR_STDDEV = 2;
+
+    private final int mode;
+    private final double maxErr;
+    private final double maxRelDif;
+
+    private ForecastBand(int mode, double maxErr, double maxRelDif) {
+        this.mode = mode;
+        this.maxErr = maxErr;
+        this.maxRelDif = maxRelDif;
+    }
+
+    // expected -/+ maxErr
+    public static ForecastBand absolute(double maxErr) {
+        return new ForecastBand(ABSOLUTE, maxErr, 0.0D);
+    }
+
+    // expected * (1 -/+ maxRelDif)
+    public static ForecastBand relative(double maxRelDif) {
+        return new ForecastBand(RELATIVE, 0.0D, maxRelDif);
+    }
+
+    // Widest of expected -/+ stdDev and expected * (1 -/+ maxRelDif)
+    public static ForecastBand relativeOrStdDev(double stdDev, double maxRelDif) {
+        return new ForecastBand(RELATIVE_OR_STDDEV, stdDev, maxRelDif);
+    }
+
+    // Bounds for the first n expected values, one branch free loop per mode
+    public void apply(double[] expected, double[] outLower, double[] outUpper, int n) {
+        switch (mode) {
+            case ABSOLUTE:
+                for (int i = 0; i < n; i++) {
+                    outLower[i] = expected[i] - maxErr;
+                    outUpper[i] = expected[i] + maxErr;
+                }
+                break;
+            case RELATIVE:
+                double lf = 1 - maxRelDif;
+                double uf = 1 + maxRelDif;
+                for (int i = 0; i < n; i++) {
+                    outLower[i] = expected[i] * lf;
+                    outUpper[i] = expected[i] * uf;
+                }
+                break;
+            case RELATIVE_OR_STDDEV:
+            default:
+                double l = 1 - maxRelDif;
+                double u = 1 + maxRelDif;
+                for (int i = 0; i < n; i++) {
+                    outLower[i] = Math.min(expected[i] - maxErr, expected[i] * l);
+                    outUpper[i] = Math.max(expected[i] + maxErr, expected[i] * u);
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * How buckets without data points are filled
+ */
+public enum GapPolicies {
+    ZERO, // 0, an outage shows up as a drop
+    PREVIOUS, // Value of the bucket before the gap
+    LINEAR, // Interpolated between the buckets around the gap
+    MEAN, // Mean of the buckets with data
+    MISSING // Interpolated placeholder, excluded from the training statistics, the regression, Holt-Winters, moving average and SVM fits and not classified.
+            // Fits that need the even step (exponential smoothing, random walk deltas, interval interceptor) still train on the placeholder
+}
@@ -0,0 +1,161 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.Arrays;
+
+/**
+ * Sorted, non overlapping index ranges [start, end) of buckets without data, run length encoded so a long outage costs two ints
+ */
+public class GapRanges {
+    public static final GapRanges NONE = new GapRanges(0); // Shared empty instance, never add to it
+
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+    private int points = 0;
+
+    public GapRanges() {
+        this(4);
+    }
+
+    private GapRanges(int capacity) {
+        starts = new int[capacity];
+        ends = new int[capacity];
+    }
+
+    // Ranges of the clear bits among the first n, e.g. buckets that did not get a point
+    public static GapRanges fromClearBits(long[] bits, int n) {
+        GapRanges res = new GapRanges();
+        int i = _next(bits, 0, n, false);
+        while (i < n) {
+            int end = _next(bits, i, n, true);
+            res.add(i, end);
+            i = _next(bits, end, n, false);
+        }
+        return res;
+    }
+
+    // First index from i with the bit set (or clear), n if there is none. Whole words are skipped at once
+    private static int _next(long[] bits, int i, int n, boolean set) {
+        while (i < n) {
+            long word = set ? bits[i >>> 6] : ~bits[i >>> 6];
+            word &= -1L << (i & 63);
+            if (word != 0) {
+                return Math.min(n, (i & ~63) + Long.numberOfTrailingZeros(word));
+            }
+            i = (i & ~63) + 64;
+        }
+        return n;
+    }
+
+    // Adds a range after all current ones, an adjacent range is extended
+    public void add(int start, int end) {
+        if (end <= start) {
+            return;
+        }
+        if (size > 0 && start < ends[size - 1]) {
+            throw new IllegalArgumentException("Range " + start + "-" + end + " is not after " + ends[size - 1]);
+        }
+        points += end - start;
+        if (size > 0 && start == ends[size - 1]) {
+            ends[size - 1] = end;
+            return;
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(4, size * 2));
+            ends = Arrays.copyOf(ends, Math.max(4, size * 2));
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    // Fills the values of every range among the first n, the values around a range are data. MISSING gets the linear placeholder
+    public void fill(double[] values, int n, GapPolicies policy, double mean) {
+        for (int k = 0; k < size; k++) {
+            int start = starts[k];
+            int end = ends[k];
+            double before = start > 0 ? values[start - 1] : (end < n ? values[end] : mean);
+            double after = end < n ? values[end] : before;
+            for (int i = start; i < end; i++) {
+                values[i] = fillValue(policy, before, after, i - start, end - start, mean);
+            }
+        }
+    }
+
+    // Value of point k of a gap of length points between the values before and after it
+    public static double fillValue(GapPolicies policy, double before, double after, int k, int length, double mean) {
+        switch (policy) {
+            case PREVIOUS:
+                return before;
+            case MEAN:
+                return mean;
+            case LINEAR:
+            case MISSING:
+                return before + (after - before) * (k + 1) / (length + 1);
+            case ZERO:
+            default:
+                return 0.0D;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getStart(int k) {
+        return starts[k];
+    }
+
+    public int getEnd(int k) {
+        return ends[k];
+    }
+
+    // Total number of indices in all ranges
+    public int getPoints() {
+        return points;
+    }
+
+    // First range that ends after index i, size() if none. Start of a cursor that skips ranges while iterating upwards
+    public int indexAfter(int i) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= i) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Number of indices in [from, to) that are in a range
+    public int pointsIn(int from, int to) {
+        int res = 0;
+        for (int k = indexAfter(from); k < size && starts[k] < to; k++) {
+            res += Math.min(ends[k], to) - Math.max(starts[k], from);
+        }
+        return res;
+    }
+
+    public boolean contains(int i) {
+        if (size == 0) {
+            return false;
+        }
+        int k = indexAfter(i);
+        return k < size && starts[k] <= i;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int k = 0; k < size; k++) {
+            sb.append(k == 0 ? "" : ", ").append(starts[k]).append('-').append(ends[k]);
+        }
+        return sb.append(']').toString();
+    }
+}
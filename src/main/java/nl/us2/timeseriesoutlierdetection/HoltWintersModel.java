@@ -0,0 +1,425 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Additive triple exponential smoothing over evenly spaced points, plain Holt smoothing when there is no season
+ */
+public class HoltWintersModel {
+    // Season periods in seconds that are tried, the same daily and hourly windows the time bucket analyzer uses
+    public static final long[] SEASON_PERIODS = new long[]{ 86400L, 3600L };
+    public static final double MIN_SEASON_CORRELATION = 0.3D;
+    public static final int MAX_SCAN_LAG = 64; // Short seasons are scanned lag by lag, longer ones only at the periods above
+
+    // Parameter search, coarse grid followed by halving coordinate steps
+    private static final double[] COARSE_GRID = new double[]{ 0.1D, 0.3D, 0.5D, 0.7D, 0.9D };
+    private static final int REFINE_ROUNDS = 5;
+
+    private final int seasonLength; // 0 without season
+    private final long step;
+    private double alpha;
+    private double beta;
+    private double gamma;
+
+    // State after the last observed point
+    private double level;
+    private double trend;
+    private final double[] season;
+    private int seasonPos = 0;
+    private long lastTs;
+
+    // One step ahead errors over the training window
+    private double sse = Double.NaN;
+    private double mad = Double.NaN;
+    private double mape = Double.NaN;
+    private int errors = 0;
+
+    private HoltWintersModel(int seasonLength, long step) {
+        this.seasonLength = seasonLength;
+        this.step = step;
+        season = new double[seasonLength];
+    }
+
+    // Fits the smoothing parameters on ts[from..to), seasonLength 0 for no season
+    public static HoltWintersModel fit(long[] ts, double[] y, int from, int to, int seasonLength) throws Exception {
+        return fit(ts, y, from, to, seasonLength, GapRanges.NONE);
+    }
+
+    // Same as fit, skipped points (e.g. missing ones) advance the state with their forecast and are not scored. The initial state uses them as they are
+    public static HoltWintersModel fit(long[] ts, double[] y, int from, int to, int seasonLength, GapRanges skip) throws Exception {
+        int n = to - from;
+        if (seasonLength > 0 && n < 2 * seasonLength + 1) {
+            throw new Exception("Need at least two seasons of " + seasonLength + " points, got " + n);
+        }
+        if (n < 3) {
+            throw new Exception("Need at least 3 points, got " + n);
+        }
+        HoltWintersModel m = new HoltWintersModel(seasonLength, detectStep(ts, from, to));
+
+        // Initial state is shared by every candidate, the season buffer is reused
+        m._init(y, from);
+        double initLevel = m.level;
+        double initTrend = m.trend;
+        double[] initSeason = m.season.clone();
+
+        // Coarse grid
+        boolean seasonal = seasonLength > 0;
+        double best = Double.MAX_VALUE;
+        double bestA = 0.5D;
+        double bestB = 0.1D;
+        double bestG = 0.1D;
+        for (double a : COARSE_GRID) {
+            for (double b : COARSE_GRID) {
+                for (int gi = 0; gi < (seasonal ? COARSE_GRID.length : 1); gi++) {
+                    double g = seasonal ? COARSE_GRID[gi] : 0.0D;
+                    double sse = m._sse(y, from, to, skip, a, b, g, initLevel, initTrend, initSeason);
+                    if (sse < best) {
+                        best = sse;
+                        bestA = a;
+                        bestB = b;
+                        bestG = g;
+                    }
+                }
+            }
+        }
+
+        // Refine one parameter at a time around the best point
+        double delta = 0.1D;
+        for (int round = 0; round < REFINE_ROUNDS; round++) {
+            delta /= 2;
+            for (int p = 0; p < (seasonal ? 3 : 2); p++) {
+                for (int dir = -1; dir <= 1; dir += 2) {
+                    double a = p == 0 ? _clamp(bestA + dir * delta) : bestA;
+                    double b = p == 1 ? _clamp(bestB + dir * delta) : bestB;
+                    double g = p == 2 ? _clamp(bestG + dir * delta) : bestG;
+                    double sse = m._sse(y, from, to, skip, a, b, g, initLevel, initTrend, initSeason);
+                    if (sse < best) {
+                        best = sse;
+                        bestA = a;
+                        bestB = b;
+                        bestG = g;
+                    }
+                }
+            }
+        }
+
+        // Final run leaves the state at the end of the training window and records the error statistics
+        m.alpha = bestA;
+        m.beta = bestB;
+        m.gamma = bestG;
+        m.level = initLevel;
+        m.trend = initTrend;
+        System.arraycopy(initSeason, 0, m.season, 0, seasonLength);
+        m.seasonPos = 0;
+        double sae = 0.0D;
+        double sape = 0.0D;
+        double sse = 0.0D;
+        int gap = skip.indexAfter(from + m._start());
+        for (int i = from + m._start(); i < to; i++) {
+            if (gap < skip.size() && i >= skip.getEnd(gap)) {
+                gap++;
+            }
+            double expected = m.forecast(1);
+            if (gap < skip.size() && i >= skip.getStart(gap)) {
+                m.update(expected);
+                continue;
+            }
+            double err = expected - y[i];
+            sae += Math.abs(err);
+            sape += Math.abs(err / y[i]);
+            sse += err * err;
+            m.update(y[i]);
+        }
+        m.errors = to - from - m._start() - skip.pointsIn(from + m._start(), to);
+        m.sse = sse;
+        m.mad = sae / m.errors;
+        m.mape = sape / m.errors;
+        m.lastTs = ts[to - 1];
+        return m;
+    }
+
+    // Season length in points, 0 if there is none. See the skip variant
+    public static int detectSeasonLength(long[] ts, double[] y, int from, int to) {
+        return detectSeasonLength(ts, y, from, to, GapRanges.NONE);
+    }
+
+    // Autocorrelation of the detrended serie. A lag is a season when it correlates and half of it anti correlates, a smooth or trending serie
+    // correlates at every short lag but never has that dip. Pairs with a skipped point (e.g. a missing one) do not count
+    public static int detectSeasonLength(long[] ts, double[] y, int from, int to, GapRanges skip) {
+        long step = detectStep(ts, from, to);
+        int n = to - from;
+        int present = n - skip.pointsIn(from, to);
+        if (present < 4) {
+            return 0;
+        }
+
+        // Least squares line over the points that are not skipped
+        double sx = 0.0D;
+        double sy = 0.0D;
+        double sxx = 0.0D;
+        double sxy = 0.0D;
+        int gap = skip.indexAfter(from);
+        for (int i = from; i < to; i++) {
+            if (gap < skip.size() && i >= skip.getStart(gap)) {
+                i = skip.getEnd(gap++) - 1;
+                continue;
+            }
+            double x = i - from;
+            sx += x;
+            sy += y[i];
+            sxx += x * x;
+            sxy += x * y[i];
+        }
+        double slope = (present * sxy - sx * sy) / (present * sxx - sx * sx);
+        double intercept = (sy - slope * sx) / present;
+
+        // Residuals of the line, skipped ones are 0 so their pairs add nothing
+        double[] residuals = new double[n];
+        double var = 0.0D;
+        double total = 0.0D;
+        double mean = sy / present;
+        gap = skip.indexAfter(from);
+        for (int i = from; i < to; i++) {
+            if (gap < skip.size() && i >= skip.getStart(gap)) {
+                i = skip.getEnd(gap++) - 1;
+                continue;
+            }
+            residuals[i - from] = y[i] - (intercept + slope * (i - from));
+            var += residuals[i - from] * residuals[i - from];
+            total += (y[i] - mean) * (y[i] - mean);
+        }
+        // Nothing left beyond the trend (rounding only)
+        if (var <= total * 1e-9D || var == 0.0D) {
+            return 0;
+        }
+
+        // Short lags one by one, then the season periods, ascending so the shortest of equally strong lags wins
+        int maxLag = (n - 1) / 2;
+        int[] lags = new int[MAX_SCAN_LAG - 1 + SEASON_PERIODS.length];
+        int count = 0;
+        for (int lag = 2; lag <= Math.min(MAX_SCAN_LAG, maxLag); lag++) {
+            lags[count++] = lag;
+        }
+        for (long period : SEASON_PERIODS) {
+            if (period % step == 0 && period / step > MAX_SCAN_LAG && period / step <= maxLag) {
+                lags[count++] = (int) (period / step);
+            }
+        }
+        Arrays.sort(lags, 0, count);
+
+        int bestLength = 0;
+        double bestScore = MIN_SEASON_CORRELATION;
+        for (int c = 0; c < count; c++) {
+            int lag = lags[c];
+            double correlation = _autocorrelation(residuals, var, lag);
+            if (correlation <= MIN_SEASON_CORRELATION) {
+                continue;
+            }
+            double score = correlation - _autocorrelation(residuals, var, lag / 2);
+            if (score > bestScore) {
+                bestScore = score;
+                bestLength = lag;
+            }
+        }
+        return bestLength;
+    }
+
+    // Mean lagged product relative to the variance
+    private static double _autocorrelation(double[] x, double var, int lag) {
+        double cov = 0.0D;
+        for (int i = lag; i < x.length; i++) {
+            cov += x[i] * x[i - lag];
+        }
+        return (cov / (x.length - lag)) / (var / x.length);
+    }
+
+    // Distance between the first two points, the loaders bucket on a fixed interval
+    private static long detectStep(long[] ts, int from, int to) {
+        if (to - from < 2 || ts[from + 1] <= ts[from]) {
+            return 60L;
+        }
+        return ts[from + 1] - ts[from];
+    }
+
+    private static double _clamp(double x) {
+        return Math.max(0.0D, Math.min(1.0D, x));
+    }
+
+    // First training index that gets a forecast
+    private int _start() {
+        return seasonLength > 0 ? seasonLength : 1;
+    }
+
+    // Level and trend from the first (two) season(s), season offsets from the first season
+    private void _init(double[] y, int from) {
+        if (seasonLength == 0) {
+            level = y[from];
+            trend = y[from + 1] - y[from];
+            return;
+        }
+        double first = 0.0D;
+        double second = 0.0D;
+        for (int i = 0; i < seasonLength; i++) {
+            first += y[from + i];
+            second += y[from + seasonLength + i];
+        }
+        first /= seasonLength;
+        second /= seasonLength;
+        level = first;
+        trend = (second - first) / seasonLength;
+        for (int i = 0; i < seasonLength; i++) {
+            season[i] = y[from + i] - first;
+        }
+    }
+
+    // Sum of squared one step ahead errors for a parameter set, O(n) on the shared state buffer. Skipped points take their forecast
+    private double _sse(double[] y, int from, int to, GapRanges skip, double a, double b, double g, double initLevel, double initTrend, double[] initSeason) {
+        double l = initLevel;
+        double t = initTrend;
+        System.arraycopy(initSeason, 0, season, 0, seasonLength);
+        int pos = 0;
+        double sse = 0.0D;
+        int gap = skip.indexAfter(from + _start());
+        for (int i = from + _start(); i < to; i++) {
+            if (gap < skip.size() && i >= skip.getEnd(gap)) {
+                gap++;
+            }
+            double s = seasonLength > 0 ? season[pos] : 0.0D;
+            double v = y[i];
+            if (gap < skip.size() && i >= skip.getStart(gap)) {
+                v = l + t + s;
+            } else {
+                double err = l + t + s - v;
+                sse += err * err;
+            }
+            double prevLevel = l;
+            l = a * (v - s) + (1 - a) * (l + t);
+            t = b * (l - prevLevel) + (1 - b) * t;
+            if (seasonLength > 0) {
+                season[pos] = g * (v - l) + (1 - g) * s;
+                pos = (pos + 1) % seasonLength;
+            }
+        }
+        return sse;
+    }
+
+    // Expected value h steps after the last observed point
+    public double forecast(int h) {
+        double res = level + h * trend;
+        if (seasonLength > 0) {
+            res += season[(seasonPos + h - 1) % seasonLength];
+        }
+        return res;
+    }
+
+    // Expected value at a timestamp after the last observed point
+    public double forecast(long ts) {
+        return forecast(_steps(ts));
+    }
+
+    // One step update with the next point
+    public void update(double y) {
+        double s = seasonLength > 0 ? season[seasonPos] : 0.0D;
+        double prevLevel = level;
+        level = alpha * (y - s) + (1 - alpha) * (level + trend);
+        trend = beta * (level - prevLevel) + (1 - beta) * trend;
+        if (seasonLength > 0) {
+            season[seasonPos] = gamma * (y - level) + (1 - gamma) * s;
+            seasonPos = (seasonPos + 1) % seasonLength;
+        }
+        lastTs += step;
+    }
+
+    // Update with a point at a timestamp, missing steps in between are filled with their forecast
+    public void learn(long ts, double y) {
+        // A point at or before the last one would be learned as the next step and shift the season
+        if (ts <= lastTs) {
+            throw new IllegalArgumentException("Timestamp " + ts + " does not advance past " + lastTs);
+        }
+        int h = _steps(ts);
+        for (int i = 1; i < h; i++) {
+            update(forecast(1));
+        }
+        update(y);
+        lastTs = ts;
+    }
+
+    // Snapshot state, parameters and smoothing state so learning continues where it left off
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(seasonLength);
+        out.writeLong(step);
+        out.writeDouble(alpha);
+        out.writeDouble(beta);
+        out.writeDouble(gamma);
+        out.writeDouble(level);
+        out.writeDouble(trend);
+        for (int i = 0; i < seasonLength; i++) {
+            out.writeDouble(season[i]);
+        }
+        out.writeInt(seasonPos);
+        out.writeLong(lastTs);
+        out.writeDouble(sse);
+        out.writeDouble(mad);
+        out.writeDouble(mape);
+        out.writeInt(errors);
+    }
+
+    public static HoltWintersModel read(DataInput in) throws IOException {
+        int seasonLength = in.readInt();
+        if (seasonLength < 0) {
+            throw new IOException("Invalid season length " + seasonLength);
+        }
+        HoltWintersModel m = new HoltWintersModel(seasonLength, in.readLong());
+        m.alpha = in.readDouble();
+        m.beta = in.readDouble();
+        m.gamma = in.readDouble();
+        m.level = in.readDouble();
+        m.trend = in.readDouble();
+        for (int i = 0; i < seasonLength; i++) {
+            m.season[i] = in.readDouble();
+        }
+        m.seasonPos = in.readInt();
+        m.lastTs = in.readLong();
+        m.sse = in.readDouble();
+        m.mad = in.readDouble();
+        m.mape = in.readDouble();
+        m.errors = in.readInt();
+        return m;
+    }
+
+    // Steps from the last observed point, at least one as forecasts are never for the past
+    private int _steps(long ts) {
+        return (int) Math.max(1L, Math.round((ts - lastTs) / (double) step));
+    }
+
+    public int getSeasonLength() {
+        return seasonLength;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    public double getGamma() {
+        return gamma;
+    }
+
+    public double getMSE() {
+        return sse / errors;
+    }
+
+    public double getMAD() {
+        return mad;
+    }
+
+    public double getMAPE() {
+        return mape;
+    }
+}
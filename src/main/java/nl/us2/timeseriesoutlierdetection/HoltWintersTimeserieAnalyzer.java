@@ -0,0 +1,103 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Triple exponential smoothing with a detected daily or hourly season, falls back to Holt smoothing
+ */
+public class HoltWintersTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ISnapshotTimeserieAnalyzer {
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        IStreamingTimeserieModel m;
+        try {
+            m = trainStreaming(dataLoader, timeserie);
+        } catch (Exception e) {
+            dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unable to fit: {}", e.getMessage());
+            return;
+        }
+        if (m == null) {
+            return;
+        }
+
+        // Classify
+        classifyStreaming(dataLoader, res, timeserie, m);
+    }
+
+    public IStreamingTimeserieModel trainStreaming(AbstractDataLoader dataLoader, Timeseries timeserie) throws Exception {
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getTrainValues();
+        int trainSize = timeserie.getTrainSize();
+
+        // Season
+        GapRanges missing = timeserie.getMissing();
+        int seasonLength = HoltWintersModel.detectSeasonLength(timestamps, values, 0, trainSize, missing);
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Season length = {}", seasonLength);
+
+        // Model
+        HoltWintersModel m = HoltWintersModel.fit(timestamps, values, 0, trainSize, seasonLength, missing);
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Alpha = {} beta = {} gamma = {}", m.getAlpha(), m.getBeta(), m.getGamma());
+
+        // Total sum of squares
+        double tsos = timeserie.getTrainStatistics().getTotalSumSquares();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum squares = {}", tsos);
+
+        // Validate, total sum of squares must be bigger than 0 as else there is no delta between avg and data values
+        double mse = m.getMSE();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = {}", mse);// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute deviation = {}", m.getMAD());// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute percentage error = {}", m.getMAPE());// Reliable?
+        // One step ahead errors, so the same bound as the other smoothing analyzers
+        if (!reliableFit(dataLoader, timeserie, mse, m.getMAD(), 0.05D)) {
+            return null;
+        }
+
+        double maxRelDif = Math.max(0.5 * mse / tsos, 0.05); // Half of the expected error is acceptable, or 5%
+        return new Model(timeserie, m, maxRelDif, timeserie.getTrainStdDev());
+    }
+
+    public IStreamingTimeserieModel readSnapshot(Timeseries timeserie, DataInput in) throws IOException {
+        double maxRelDif = in.readDouble();
+        double stdDev = in.readDouble();
+        return new Model(timeserie, HoltWintersModel.read(in), maxRelDif, stdDev);
+    }
+
+    // Forecasts from the smoothed state after the last learned point
+    private class Model implements ISnapshotTimeserieModel {
+        private final Timeseries timeserie;
+        private final HoltWintersModel m;
+        private final double maxRelDif;
+        private final double stdDev; // Of the training data the model was fitted on
+
+        private Model(Timeseries timeserie, HoltWintersModel m, double maxRelDif, double stdDev) {
+            this.timeserie = timeserie;
+            this.m = m;
+            this.maxRelDif = maxRelDif;
+            this.stdDev = stdDev;
+        }
+
+        public void writeSnapshot(DataOutput out) throws IOException {
+            out.writeDouble(maxRelDif);
+            out.writeDouble(stdDev);
+            m.write(out);
+        }
+
+        public TimeserieOutlier classify(long ts, double val) {
+            double expectedVal = m.forecast(ts);
+            double lb = Math.min(expectedVal - stdDev, expectedVal * (1-maxRelDif));
+            double rb = Math.max(expectedVal + stdDev, expectedVal * (1+maxRelDif));
+            if (val < lb || val > rb) {
+                TimeserieOutlier outlier = new TimeserieOutlier(HoltWintersTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+                if (!timeserie.validateOutlier(outlier)) {
+                    return null;
+                }
+                return outlier;
+            }
+            return new TimeserieInlier(HoltWintersTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+        }
+
+        public void learn(long ts, double val) {
+            m.learn(ts, val);
+        }
+    }
+}
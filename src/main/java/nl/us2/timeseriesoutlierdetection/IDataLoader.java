@@ -9,5 +9,6 @@ import java.util.HashMap;
 public interface IDataLoader {
     public ArrayList<Long> loadExpectedErrors() throws Exception;
     HashMap<String, HashMap<String, String>> loadRawData() throws Exception;
+    void loadRawData(RawSeriesSink sink) throws Exception;
     HashMap<String, String> loadSettings() throws Exception;
 }
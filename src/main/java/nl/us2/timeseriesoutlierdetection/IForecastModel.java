@@ -0,0 +1,9 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Trained model that forecasts a whole window at once
+ */
+public interface IForecastModel {
+    // Fills the expected value and bounds for every timestamp, the output arrays hold at least ts.length entries
+    void forecast(long[] ts, double[] outExpected, double[] outLower, double[] outUpper);
+}
@@ -0,0 +1,47 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Instrumentation of the detection pipeline, recording must be cheap and thread safe. Component is e.g. the analyzer name, null for the stage as a whole
+ */
+public interface IMetrics {
+    // Stage latencies
+    String STAGE_LOAD = "load";
+    String STAGE_PROCESS = "process_data";
+    String STAGE_ANALYZE = "analyze";
+    String STAGE_ANALYZER = "analyzer";
+    String STAGE_TRAIN = "train";
+    String STAGE_CLASSIFY = "classify";
+    String STAGE_STREAM = "stream";
+    String STAGE_VALIDATE = "validate";
+
+    // Counters
+    String POINTS_LOADED = "points_loaded";
+    String POINTS_CLASSIFIED = "points_classified";
+    String POINTS_STREAMED = "points_streamed";
+    String OUTLIERS = "outliers";
+    String INLIERS = "inliers";
+    String UNRELIABLE = "unreliable";
+    String SANITIZED = "sanitized"; // Training points replaced as weird outliers
+    String GAP_POINTS = "gap_points"; // Buckets without data that were filled
+
+    // Gauges
+    String POOL_QUEUE = "pool_queue";
+
+    void recordLatency(String stage, String component, long nanos);
+
+    void increment(String counter, String component, long delta);
+
+    void gauge(String name, String component, long value);
+
+    // Discards everything, the default
+    IMetrics NOOP = new IMetrics() {
+        public void recordLatency(String stage, String component, long nanos) {
+        }
+
+        public void increment(String counter, String component, long delta) {
+        }
+
+        public void gauge(String name, String component, long value) {
+        }
+    };
+}
@@ -0,0 +1,12 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Streaming analyzer whose models can be restored from a snapshot instead of retrained
+ */
+public interface ISnapshotTimeserieAnalyzer extends IStreamingTimeserieAnalyzer {
+    // Model bound to the serie from a state written by ISnapshotTimeserieModel.writeSnapshot
+    IStreamingTimeserieModel readSnapshot(Timeseries timeserie, DataInput in) throws IOException;
+}
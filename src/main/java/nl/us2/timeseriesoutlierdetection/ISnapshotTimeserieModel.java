@@ -0,0 +1,12 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Streaming model that can write its state, restored by the analyzer that trained it
+ */
+public interface ISnapshotTimeserieModel extends IStreamingTimeserieModel {
+    // Everything needed to continue classifying and learning, the serie itself is not included
+    void writeSnapshot(DataOutput out) throws IOException;
+}
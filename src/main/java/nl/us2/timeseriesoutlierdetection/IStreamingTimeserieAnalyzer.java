@@ -0,0 +1,9 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Analyzer that can train a model once and then classify new points one by one
+ */
+public interface IStreamingTimeserieAnalyzer extends ITimeserieAnalyzer {
+    // Trains on the training data of the serie, null if the model is unreliable for this serie
+    IStreamingTimeserieModel trainStreaming(AbstractDataLoader dataLoader, Timeseries timeserie) throws Exception;
+}
@@ -0,0 +1,12 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Incrementally updatable model, classify and learn are expected to be O(1) per point
+ */
+public interface IStreamingTimeserieModel {
+    // Outlier, inlier (TimeserieInlier) or null if the point should not be reported
+    TimeserieOutlier classify(long ts, double val);
+
+    // Update the model with an observed point
+    void learn(long ts, double val);
+}
@@ -3,16 +3,26 @@ package nl.us2.timeseriesoutlierdetection;
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Interval based forecasting
  * @author Robin Verlangen
  */
 public class IntervalInterceptorModel {
-    private TreeMap<Long, Double> data;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NO_INTERVAL_KEY = -1L;
+    private static final long MAX_PHASE_TABLE_SIZE = 1 << 16;
+
+    // Data in insertion order, sorted by timestamp when training
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+    private boolean sorted;
+
     private double maxValue;
     private double minValue;
     private boolean debugEnabled;
@@ -27,11 +37,16 @@ public class IntervalInterceptorModel {
     private SimpleRegression nonPatternRegression;
     private ArrayList<IntervalPattern> intervalPatterns;
     private boolean useLowRegression = false;
+    private long phaseOrigin;
+    private int[] phaseTable; // Index of the first pattern in a peak per step after phaseOrigin, -1 if none
 
     private final double MIN_PATTERN_COVERAGE = 0.1;
 
     public IntervalInterceptorModel() {
-        data = new TreeMap<Long, Double>();
+        timestamps = new long[INITIAL_CAPACITY];
+        values = new double[INITIAL_CAPACITY];
+        size = 0;
+        sorted = true;
         maxValue = Double.MIN_VALUE;
         minValue = Double.MAX_VALUE;
         debugEnabled = false;
@@ -40,7 +55,17 @@ public class IntervalInterceptorModel {
     }
 
     public void addData(long ts, double val) {
-        data.put(ts, val);
+        if (size == timestamps.length) {
+            int capacity = timestamps.length * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        if (size > 0 && ts <= timestamps[size - 1]) {
+            sorted = false;
+        }
+        timestamps[size] = ts;
+        values[size] = val;
+        size++;
         if (val < minValue) {
             minValue = val;
         }
@@ -50,21 +75,61 @@ public class IntervalInterceptorModel {
         isTrained = false;
     }
 
+    // Bulk add of the points [from, to)
+    public void addData(long[] ts, double[] vals, int from, int to) {
+        for (int i = from; i < to; i++) {
+            addData(ts[i], vals[i]);
+        }
+    }
+
+    // Order by timestamp, the last value added for a timestamp wins
+    private void sortData() {
+        if (sorted) {
+            return;
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(timestamps[a], timestamps[b]);
+            }
+        });
+        long[] ts = new long[size];
+        double[] vals = new double[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int j = order[i];
+            if (n > 0 && ts[n - 1] == timestamps[j]) {
+                vals[n - 1] = values[j];
+                continue;
+            }
+            ts[n] = timestamps[j];
+            vals[n] = values[j];
+            n++;
+        }
+        timestamps = ts;
+        values = vals;
+        size = n;
+        sorted = true;
+    }
+
     public void train() throws Exception {
+        sortData();
+        final long[] ts = timestamps;
+        final double[] vals = values;
+        final int n = size;
+
         // Calculate average and standard deviation, very low stddev will make this unusable algo (as there are no peaks/lows)
         double total = 0.0D;
         dataCount = 0;
         long tsPrev = -1;
         tsDelta = -1L;
-        for (Map.Entry<Long, Double> kv:  data.entrySet()) {
-            double val = kv.getValue();
-
-            // Current time
-            long ts = kv.getKey();
-
+        for (int i = 0; i < n; i++) {
             // Sparse data?
             if (tsPrev > -1L) {
-                long nowDelta = ts - tsPrev;
+                long nowDelta = ts[i] - tsPrev;
                 if (tsDelta > -1 && nowDelta != tsDelta) {
                     throw new Exception("nl.us2.timeseriesoutlierdetection.Timeseries time interval not consistent");
                 }
@@ -72,10 +137,10 @@ public class IntervalInterceptorModel {
             }
 
             // Previous time
-            tsPrev = ts;
+            tsPrev = ts[i];
 
             // Total
-            total += val;
+            total += vals[i];
 
             // Data point count
             dataCount++;
@@ -84,14 +149,14 @@ public class IntervalInterceptorModel {
 
         // Standard deviation
         double msqT = 0.0D;
-        for (double val : data.values()) {
-            double msq = Math.pow(val - avg, 2.0D);
+        for (int i = 0; i < n; i++) {
+            double msq = Math.pow(vals[i] - avg, 2.0D);
             msqT += msq;
         }
         double msqAvg = msqT / (double)dataCount;
         stdDev = Math.sqrt(msqAvg);
-        debug("avg " + avg);
-        debug("stddev " + stdDev);
+        debug("avg {}", avg);
+        debug("stddev {}", stdDev);
         if (stdDev == 0.0D) {
             isTrained = true;
             debug("Standard deviation zero, stop training");
@@ -104,42 +169,101 @@ public class IntervalInterceptorModel {
         // Clear found patterns list
         intervalPatterns.clear();
 
-        // Scan intervals
+        // Scan intervals, without a valid deviation every point would match every scan value, which never yields a pattern
+        if (!Double.isNaN(stdDev)) {
+            _scanIntervals(ts, vals, n);
+        }
+
+        // Pattern membership, one bit per data point, timestamps are regular so a point's bit follows from its timestamp
+        BitSet inPattern = new BitSet(n);
+        for (IntervalPattern ip : intervalPatterns) {
+            for (long t : ip.timestamps) {
+                inPattern.set((int)((t - ts[0]) / tsDelta));
+            }
+        }
+
+        // Train regression for non-pattern datapoints
+        nonPatternRegression = new SimpleRegression();
+        for (int i = inPattern.nextClearBit(0); i < n; i = inPattern.nextClearBit(i + 1)) {
+            nonPatternRegression.addData((double)ts[i], vals[i]);
+        }
+
+        // Phase table for predictions
+        _buildPhaseTable();
+
+        // MSE for reliability
+        totalSumSquares = 0.0D;
+        totalSumSquares += nonPatternRegression.getTotalSumSquares();
+        meanSquareError = 0.0D;
+        meanSquareError += nonPatternRegression.getMeanSquareError();
+        for (IntervalPattern ip : intervalPatterns) {
+            meanSquareError += ip.peakRegression.getMeanSquareError();
+            totalSumSquares += ip.peakRegression.getTotalSumSquares();
+            debug("pattern relative mse = {}", ip.peakRegression.getMeanSquareError() / ip.peakRegression.getTotalSumSquares());
+        }
+        debug("non pattern relative mse = {}", nonPatternRegression.getMeanSquareError() / nonPatternRegression.getTotalSumSquares());
+
+        // Use as low regression?
+        useLowRegression = false;
+        if (nonPatternRegression.getSlopeStdErr() < stdDev) {
+            debug("enabled low regression");
+            useLowRegression = true;
+        }
+
+        // Done
+        isTrained = true;
+    }
+
+    /**
+     * Lowers a scan value from just above the average towards the minimum, the points in [scanValue, maxScanValue) are
+     * checked for regular intervals. Both bounds only move down, so the candidate points are a sliding range over the
+     * points ordered by descending value, every point enters and leaves that range once.
+     */
+    private void _scanIntervals(long[] ts, double[] vals, int n) {
+        // Value sorted index, descending
+        int[] order = _orderByValueDesc(vals, n);
+        double bandLow = avg -(0.1 * stdDev);
+        double bandHigh = avg + (0.1*stdDev);
+        int rangeStart = 0; // First candidate in order
+        int rangeEnd = 0; // Past the last candidate in order
+        int foundPairCount = 0; // Candidates in range, excluding values around avg
+        int[] foundPairs = new int[n]; // Positions of the candidates, in time order
+
         double scanValue = avg + 1*stdDev;
         double maxScanValue = Double.MAX_VALUE;
         int maxIterations = 10000;
         double scanStep = Math.max((maxValue - minValue) / maxIterations, stdDev / 3);
-        debug("Max value " + maxValue);
-        debug("Scan step size " + scanStep);
-        debug("Scan start value " + scanValue);
-        TreeMap<Long, Double> foundPairs = new TreeMap<Long, Double>();
+        debug("Max value {}", maxValue);
+        debug("Scan step size {}", scanStep);
+        debug("Scan start value {}", scanValue);
         for (int i = 0; i <maxIterations; i++) {
+            // Cancelled, e.g. deadline passed
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
             scanValue -= scanStep;
             if (scanValue < minValue) {
                 break;
             }
-            foundPairs.clear();
-            for (Map.Entry<Long, Double> kv: data.entrySet()) {
-                // Ignore below scan value
-                if (kv.getValue() < scanValue) {
-                    continue;
-                }
 
-                // Ignore above max scan value, a boundary set by the last found interval
-                if (kv.getValue() >= maxScanValue) {
-                    continue;
+            // Ignore above max scan value, a boundary set by the last found interval
+            while (rangeStart < n && vals[order[rangeStart]] >= maxScanValue) {
+                if (rangeStart < rangeEnd && !_inBand(vals[order[rangeStart]], bandLow, bandHigh)) {
+                    foundPairCount--;
                 }
+                rangeStart++;
+            }
+            rangeEnd = Math.max(rangeEnd, rangeStart);
 
-                // Ignore any values around avg
-                if (kv.getValue() >= avg -(0.1 * stdDev) && kv.getValue() <= avg + (0.1*stdDev)) {
-                    continue;
+            // Extend down to the scan value, ignoring any values around avg
+            while (rangeEnd < n && vals[order[rangeEnd]] >= scanValue) {
+                if (!_inBand(vals[order[rangeEnd]], bandLow, bandHigh)) {
+                    foundPairCount++;
                 }
-
-                // Options
-                foundPairs.put(kv.getKey(), kv.getValue());
+                rangeEnd++;
             }
+
             // Need at least three peaks to establish an interval
-            int foundPairCount = foundPairs.size();
             if (foundPairCount < 3) {
                 continue;
             }
@@ -149,36 +273,41 @@ public class IntervalInterceptorModel {
                 continue;
             }
 
+            // Candidates in time order
+            int found = 0;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                if (!_inBand(vals[order[j]], bandLow, bandHigh)) {
+                    foundPairs[found++] = order[j];
+                }
+            }
+            Arrays.sort(foundPairs, 0, found);
+
             // Debug
-            debug("Pairs above scan value of " + scanValue + ": " + foundPairs.toString());
+            if (debugEnabled) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < found; j++) {
+                    sb.append(j == 0 ? "" : ", ").append(ts[foundPairs[j]]).append('=').append(vals[foundPairs[j]]);
+                }
+                debug("Pairs above scan value of {}: {{}}", scanValue, sb);
+            }
 
             // Regular intervals?
-            long previousTs = foundPairs.firstKey() - tsDelta;
+            long previousTs = ts[foundPairs[0]] - tsDelta;
             long previousTsDelta = -1L;
             long intervalStartTs = -1L; // Start timestamp
             long intervalLength = 0L; // Steps in the current interval
             long lastIntervalEndTs = -1L;
-            String possibleIntervalKey = "";
-            HashMap<String, Integer> possibleIntervals = new HashMap<String, Integer>();
-            double minVal = Double.MAX_VALUE;
-            double maxVal = Double.MIN_VALUE;
-            TreeMap<Long, Double> patternDataPoints = new TreeMap<Long, Double>();
-            for (Map.Entry<Long, Double> kv: foundPairs.entrySet()) {
-                // Store min and max
-                double val = kv.getValue();
-                if (val < minVal) {
-                    minVal = val;
-                }
-                if (val > maxVal) {
-                    maxVal = val;
-                }
-
+            long possibleIntervalKey = NO_INTERVAL_KEY;
+            IntervalCounter possibleIntervals = new IntervalCounter();
+            for (int j = 0; j < found; j++) {
                 // Analyze timestamps
-                long ts = kv.getKey();
+                long t = ts[foundPairs[j]];
                 if (previousTs > -1L) {
                     // Delta compared to previous entry
-                    long nowDelta = ts - previousTs;
-                    trace("ts delta " + nowDelta);
+                    long nowDelta = t - previousTs;
+                    if (traceEnabled) {
+                        trace("ts delta {}", nowDelta);
+                    }
 
                     // Is the previous peak 1 step away, in that case this is a interval spanning multiple points
                     boolean endOfChain = false;
@@ -187,17 +316,19 @@ public class IntervalInterceptorModel {
                     } else {
                         if (intervalStartTs > -1L) {
                             // End
-                            trace("end of chain, started at " + intervalStartTs + " length " + intervalLength);
+                            if (traceEnabled) {
+                                trace("end of chain, started at {} length {}", intervalStartTs, intervalLength);
+                            }
                             endOfChain = true;
 
                             // Option
                             if (lastIntervalEndTs > -1L) {
-                                long timeBetweenIntervals = ts - intervalStartTs;
-                                possibleIntervalKey = "l" + intervalLength + "_i" + timeBetweenIntervals;
+                                long timeBetweenIntervals = t - intervalStartTs;
+                                possibleIntervalKey = _intervalKey(intervalLength, timeBetweenIntervals);
                             }
 
                             // Last end
-                            lastIntervalEndTs = ts;
+                            lastIntervalEndTs = t;
 
                             // Reset
                             intervalStartTs = -1L;
@@ -208,55 +339,44 @@ public class IntervalInterceptorModel {
 
                     // Timestamp for spanning points
                     if (intervalStartTs == -1L) {
-                        intervalStartTs = ts;
+                        intervalStartTs = t;
                     }
 
                     // Interval ts delta
-                    long intervalTsDelta = Math.max(nowDelta, ts - intervalStartTs);
+                    long intervalTsDelta = Math.max(nowDelta, t - intervalStartTs);
 
                     // Only check intervals if this is the end of a chain
                     if (endOfChain) {
                         if (previousTsDelta > -1L) {
                             // Check for irregular series, only if the serie ended
                             if (intervalTsDelta != previousTsDelta) {
-                                trace("TS deltas are not regular, is " + intervalTsDelta + " was " + previousTsDelta);
+                                if (traceEnabled) {
+                                    trace("TS deltas are not regular, is {} was {}", intervalTsDelta, previousTsDelta);
+                                }
                             } else {
                                 // Regular delta, possible interval
-                                int tmp = possibleIntervals.getOrDefault(possibleIntervalKey, 0);
-                                tmp++;
-                                possibleIntervals.put(possibleIntervalKey, tmp);
-                                possibleIntervalKey = "";
+                                possibleIntervals.increment(possibleIntervalKey);
+                                possibleIntervalKey = NO_INTERVAL_KEY;
                             }
                         }
                         previousTsDelta = intervalTsDelta;
                     }
                 }
-                previousTs = ts;
-
-                // Store datapoints
-                patternDataPoints.put(ts, val);
+                previousTs = t;
             }
 
-            debug("Possible intervals " + possibleIntervals.toString());
+            debug("Possible intervals {}", possibleIntervals);
             if (possibleIntervals.size() > 0) {
                 // Pick the first most occuring one
-                int maxOccurence = Integer.MIN_VALUE;
-                String maxK = "";
-                for (Map.Entry<String, Integer> kv : possibleIntervals.entrySet()) {
-                    if (kv.getValue() > maxOccurence) {
-                        maxOccurence = kv.getValue();
-                        maxK = kv.getKey();
-                    }
-                }
-                // Parse match
-                String[] split = maxK.split("_");
-                int length = Integer.parseInt(split[0].substring(1));
-                int interval = Integer.parseInt(split[1].substring(1));
+                long maxK = possibleIntervals.mostOccurring();
+                int maxOccurence = possibleIntervals.get(maxK);
+                int length = (int)(maxK >>> 32);
+                int interval = (int)maxK;
 
                 // Coverage
                 int totalPatternLength = length*interval*maxOccurence;
-                double totalPatternCoverage = (double)totalPatternLength / (double)(data.lastKey() - data.firstKey());
-                debug("Total pattern coverage " + totalPatternCoverage + " (" + totalPatternCoverage*100 + "%)");
+                double totalPatternCoverage = (double)totalPatternLength / (double)(ts[n - 1] - ts[0]);
+                debug("Total pattern coverage {} ({}%)", totalPatternCoverage, totalPatternCoverage*100);
 
                 // Minimum occurence to qualify as possible pattern (something that happened once or twice is random-ish, unless it covers almost all data)
                 int occurenceThreshold = 3;
@@ -264,8 +384,14 @@ public class IntervalInterceptorModel {
 
                     // Match
                     if (totalPatternCoverage > MIN_PATTERN_COVERAGE) {
-                        debug("Pattern found: length " + length + " with interval of " + interval + " occured " + maxOccurence + " time(s)");
-                        IntervalPattern ip = new IntervalPattern(length, interval, patternDataPoints, lastIntervalEndTs);
+                        debug("Pattern found: length {} with interval of {} occured {} time(s)", length, interval, maxOccurence);
+                        long[] patternTs = new long[found];
+                        double[] patternVals = new double[found];
+                        for (int j = 0; j < found; j++) {
+                            patternTs[j] = ts[foundPairs[j]];
+                            patternVals[j] = vals[foundPairs[j]];
+                        }
+                        IntervalPattern ip = new IntervalPattern(length, interval, patternTs, patternVals, lastIntervalEndTs);
                         intervalPatterns.add(ip);
                     }
                 }
@@ -273,54 +399,106 @@ public class IntervalInterceptorModel {
 
             // Skip forward in scanStep to below the lowest value of the current pairs
             double minValFound = Double.MAX_VALUE;
-            for (double val : foundPairs.values()) {
+            for (int j = 0; j < found; j++) {
+                double val = vals[foundPairs[j]];
                 if (val < minValFound) {
                     minValFound = val;
                 }
             }
             scanValue = minValFound;
             maxScanValue = minValFound;
-            debug("Forward scanValue to " + scanValue);
+            debug("Forward scanValue to {}", scanValue);
 
             // Done?
             if (scanValue < minValue) {
                 break;
             }
         }
+    }
 
-        // Train regression for non-pattern datapoints
-        nonPatternRegression = new SimpleRegression();
-        outer : for (Map.Entry<Long, Double> kv : data.entrySet()) {
-            for (IntervalPattern ip : intervalPatterns) {
-                if (ip.getDataPoints().containsKey(kv.getKey())) {
-                    // Part of a pattern, skip
-                    continue outer;
+    /**
+     * After the last end of every pattern, whether a regular timestamp falls in a peak only depends on its step modulo
+     * the least common multiple of the pattern intervals. The table holds the first matching pattern for every step.
+     */
+    private void _buildPhaseTable() {
+        phaseTable = null;
+        if (intervalPatterns.isEmpty() || tsDelta <= 0) {
+            return;
+        }
+        long origin = Long.MIN_VALUE;
+        long steps = 1L;
+        for (IntervalPattern ip : intervalPatterns) {
+            if (ip.interval <= 0 || ip.interval % tsDelta != 0) {
+                return;
+            }
+            origin = Math.max(origin, ip.lastIntervalEndTs);
+            long patternSteps = ip.interval / tsDelta;
+            steps = steps / _gcd(steps, patternSteps) * patternSteps;
+            if (steps > MAX_PHASE_TABLE_SIZE) {
+                return;
+            }
+        }
+        int[] table = new int[(int)steps];
+        for (int k = 0; k < table.length; k++) {
+            table[k] = -1;
+            long t = origin + k * tsDelta;
+            for (int p = 0; p < intervalPatterns.size(); p++) {
+                if (intervalPatterns.get(p).inPeak(t)) {
+                    table[k] = p;
+                    break;
                 }
             }
-            nonPatternRegression.addData((double)kv.getKey(), kv.getValue());
         }
+        phaseOrigin = origin;
+        phaseTable = table;
+    }
 
-        // MSE for reliability
-        totalSumSquares = 0.0D;
-        totalSumSquares += nonPatternRegression.getTotalSumSquares();
-        meanSquareError = 0.0D;
-        meanSquareError += nonPatternRegression.getMeanSquareError();
-        for (IntervalPattern ip : intervalPatterns) {
-            meanSquareError += ip.peakRegression.getMeanSquareError();
-            totalSumSquares += ip.peakRegression.getTotalSumSquares();
-            debug("pattern relative mse = " + ip.peakRegression.getMeanSquareError() / ip.peakRegression.getTotalSumSquares());
+    private static long _gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
         }
-        debug("non pattern relative mse = " + nonPatternRegression.getMeanSquareError() / nonPatternRegression.getTotalSumSquares());
+        return a;
+    }
 
-        // Use as low regression?
-        useLowRegression = false;
-        if (nonPatternRegression.getSlopeStdErr() < stdDev) {
-            debug("enabled low regression");
-            useLowRegression = true;
-        }
+    private static boolean _inBand(double val, double bandLow, double bandHigh) {
+        return val >= bandLow && val <= bandHigh;
+    }
 
-        // Done
-        isTrained = true;
+    // Candidate intervals packed as length in the high and time between intervals in the low 32 bits
+    private static long _intervalKey(long length, long timeBetweenIntervals) {
+        return (length << 32) | (timeBetweenIntervals & 0xFFFFFFFFL);
+    }
+
+    // Indices [0, n) ordered by descending value
+    private static int[] _orderByValueDesc(double[] vals, int n) {
+        int[] order = new int[n];
+        int[] tmp = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        // Bottom up merge sort
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, n);
+                int a = lo;
+                int b = mid;
+                int k = lo;
+                while (a < mid && b < hi) {
+                    tmp[k++] = vals[order[b]] > vals[order[a]] ? order[b++] : order[a++];
+                }
+                while (a < mid) {
+                    tmp[k++] = order[a++];
+                }
+                while (b < hi) {
+                    tmp[k++] = order[b++];
+                }
+                System.arraycopy(tmp, lo, order, lo, hi - lo);
+            }
+        }
+        return order;
     }
 
     public double getMeanSquareError() {
@@ -331,15 +509,16 @@ public class IntervalInterceptorModel {
         return totalSumSquares;
     }
 
-    protected void debug(String msg) {
+    // Parameterized like AbstractDataLoader.log, nothing is formatted while disabled
+    protected void debug(String format, Object... args) {
         if (debugEnabled) {
-            System.out.println("[" + getClass().getSimpleName()+"] " + msg);
+            System.out.println("[" + getClass().getSimpleName()+"] " + AbstractDataLoader.format(format, args));
         }
     }
 
-    protected void trace(String msg) {
+    protected void trace(String format, Object... args) {
         if (traceEnabled) {
-            System.out.println("[" + getClass().getSimpleName()+"] " + msg);
+            System.out.println("[" + getClass().getSimpleName()+"] " + AbstractDataLoader.format(format, args));
         }
     }
 
@@ -363,13 +542,10 @@ public class IntervalInterceptorModel {
             return Double.NaN;
         }
 
-        // Iterate patterns
-        debug(intervalPatterns.size() + " patterns found");
-        for (IntervalPattern ip : intervalPatterns) {
-            double prediction = ip.predict(ts);
-            if (!Double.isNaN(prediction)) {
-                return prediction;
-            }
+        // Pattern, from the phase table when possible
+        IntervalPattern ip = _patternAt(ts);
+        if (ip != null) {
+            return ip.peakRegression.predict((double)ts);
         }
 
         // Dynamically decided between using non pattern regression or returining NAN
@@ -377,61 +553,185 @@ public class IntervalInterceptorModel {
             return Double.NaN;
         }
         // Unable to forecast, not a peak / no peaks detected, return value from simple regression without all the peaks
-        debug("low regression");
         return nonPatternRegression.predict((double)ts);
     }
 
+    // Predictions for the timestamps [from, to)
+    public double[] predict(long[] ts, int from, int to) throws Exception {
+        double[] out = new double[Math.max(0, to - from)];
+        for (int i = from; i < to; i++) {
+            out[i - from] = predict(ts[i]);
+        }
+        return out;
+    }
+
+    public double[] predict(long[] ts) throws Exception {
+        return predict(ts, 0, ts.length);
+    }
+
+    // First pattern with a peak at the timestamp, null if none
+    private IntervalPattern _patternAt(long ts) {
+        if (phaseTable != null && ts >= phaseOrigin && (ts - phaseOrigin) % tsDelta == 0) {
+            int p = phaseTable[(int)(((ts - phaseOrigin) / tsDelta) % phaseTable.length)];
+            return p == -1 ? null : intervalPatterns.get(p);
+        }
+        for (IntervalPattern ip : intervalPatterns) {
+            if (ip.inPeak(ts)) {
+                return ip;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Occurrences per packed interval key, open addressing, remembers insertion order
+     */
+    private static class IntervalCounter {
+        private long[] keys = new long[16];
+        private int[] counts = new int[16];
+        private boolean[] used = new boolean[16];
+        private long[] insertionOrder = new long[8];
+        private int size = 0;
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void increment(long key) {
+            int i = slot(key);
+            if (!used[i]) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    i = slot(key);
+                }
+                used[i] = true;
+                keys[i] = key;
+                if (size == insertionOrder.length) {
+                    insertionOrder = Arrays.copyOf(insertionOrder, size * 2);
+                }
+                insertionOrder[size++] = key;
+            }
+            counts[i]++;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int j = slot(oldKeys[i]);
+                    used[j] = true;
+                    keys[j] = oldKeys[i];
+                    counts[j] = oldCounts[i];
+                }
+            }
+        }
+
+        private int get(long key) {
+            int i = slot(key);
+            return used[i] ? counts[i] : 0;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private long mostOccurring() {
+            int max = Integer.MIN_VALUE;
+            int ties = 0;
+            long maxK = NO_INTERVAL_KEY;
+            for (int i = 0; i < size; i++) {
+                int c = get(insertionOrder[i]);
+                if (c > max) {
+                    max = c;
+                    maxK = insertionOrder[i];
+                    ties = 1;
+                } else if (c == max) {
+                    ties++;
+                }
+            }
+            if (ties < 2) {
+                return maxK;
+            }
+
+            // Ties are resolved in the iteration order of the string keyed hash map this used to be, so results do not change
+            HashMap<String, Long> byName = new HashMap<String, Long>();
+            for (int i = 0; i < size; i++) {
+                long k = insertionOrder[i];
+                byName.put("l" + (k >>> 32) + "_i" + (int)k, k);
+            }
+            for (Map.Entry<String, Long> kv : byName.entrySet()) {
+                if (get(kv.getValue()) == max) {
+                    return kv.getValue();
+                }
+            }
+            return maxK;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < size; i++) {
+                long k = insertionOrder[i];
+                sb.append(i == 0 ? "" : ", ").append("l").append(k >>> 32).append("_i").append((int)k).append('=').append(get(k));
+            }
+            return sb.append('}').toString();
+        }
+    }
+
     private class IntervalPattern {
         private final int length;
         private final int interval;
         private final long lastIntervalEndTs;
-        private final TreeMap<Long, Double> dataPoints;
+        private final long[] timestamps; // Sorted
+        private final double[] values;
         private SimpleRegression peakRegression;
-        private IntervalPattern(int length, int interval, TreeMap<Long, Double> dps, long lastIntervalEndTs) {
+        private IntervalPattern(int length, int interval, long[] timestamps, double[] values, long lastIntervalEndTs) {
             this.length = length;
             this.interval = interval;
             this.lastIntervalEndTs = lastIntervalEndTs;
-            this.dataPoints = dps;
+            this.timestamps = timestamps;
+            this.values = values;
             peakRegression = new SimpleRegression();
             train();
         }
 
         private final void train() {
-            for (Map.Entry<Long, Double> kv : dataPoints.entrySet()) {
-                peakRegression.addData((double) kv.getKey(), kv.getValue());
+            for (int i = 0; i < timestamps.length; i++) {
+                peakRegression.addData((double) timestamps[i], values[i]);
             }
         }
 
-        public TreeMap<Long, Double> getDataPoints() {
-            return dataPoints;
-        }
-
-        public double predict(long ts) {
-            debug(ts + " ts");
+        public boolean inPeak(long ts) {
             long tSinceLastOccurrence = ts - lastIntervalEndTs;
             int patternsMatched = (int)Math.floor(tSinceLastOccurrence / interval);
             long normalizedTsinceLastOccurence = tSinceLastOccurrence - (patternsMatched * interval);
-            debug(tSinceLastOccurrence + " tSinceLastOccurrence");
-            debug(normalizedTsinceLastOccurence + " normalizedTsinceLastOccurence");
-            debug(interval + " patternLength");
-            debug(patternsMatched + " patternsMatched");
-            if (normalizedTsinceLastOccurence >= 0 && normalizedTsinceLastOccurence < (length * tsDelta)) {
-                debug("in peak");
-                return peakRegression.predict((double)ts);
-            }
-            return Double.NaN;
+            return normalizedTsinceLastOccurence >= 0 && normalizedTsinceLastOccurence < (length * tsDelta);
         }
 
         public double getAvgPeak() {
             double sum = 0.0D;
-            for (double v : dataPoints.values()) {
+            for (double v : values) {
                 sum += v;
             }
-            return sum / dataPoints.size();
+            return sum / values.length;
         }
 
         public String toString() {
-            return getClass().getSimpleName()  + " length=" + length + " interval=" +interval + " lastend=" + lastIntervalEndTs + " data=" + dataPoints.toString();
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < timestamps.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(timestamps[i]).append('=').append(values[i]);
+            }
+            return getClass().getSimpleName()  + " length=" + length + " interval=" +interval + " lastend=" + lastIntervalEndTs + " data=" + sb.append('}');
         }
 
 
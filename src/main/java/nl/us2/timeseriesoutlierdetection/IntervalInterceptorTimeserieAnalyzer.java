@@ -1,8 +1,5 @@
 package nl.us2.timeseriesoutlierdetection;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Created by robin on 21/06/15.
  */
@@ -13,63 +10,41 @@ public class IntervalInterceptorTimeserieAnalyzer extends AbstractTimeserieAnaly
         return DEFAULT_INLIER_SCORE * 3;
     }
 
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
-
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-            try {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), kv.getKey());
-                // Get slope
-                IntervalInterceptorModel r = new IntervalInterceptorModel();
-
-                // Train regression
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                    long ts = tskv.getKey();
-                    double val = tskv.getValue();
-                    r.addData(ts, val);
-                }
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        try {
+            dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), timeserie.getSerieName());
+            // Get slope
+            IntervalInterceptorModel r = new IntervalInterceptorModel();
 
-                // Train
-                r.train();
+            // Train regression
+            r.addData(timeserie.getTimestamps(), timeserie.getTrainValues(), 0, timeserie.getTrainSize());
 
-                // Patterns?
-                if (!r.patternsFound()) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "No patterns found");
-                    continue;
-                }
+            // Train
+            r.train();
 
-                // Reliable?
-                double maxMse = 0.10; // 95% = 0.05
-                double relMse = r.getMeanSquareError() / r.getTotalSumSquares();
-                if (relMse > maxMse) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on relative mean square error crosscheck (is " + relMse + " exceeds " + maxMse + ")");
-                    continue;
-                }
+            // Patterns?
+            if (!r.patternsFound()) {
+                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "No patterns found");
+                return;
+            }
 
-                // Predict
-                double maxRelDif = 0.4; // Peaks are highly fluctuant
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                    long ts = tskv.getKey();
-                    double val = tskv.getValue();
-                    double expectedVal = r.predict(ts);
-                    dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), ts + " " + val + " " + expectedVal);
-                    double lb = Math.min(expectedVal - kv.getValue().getTrainStdDev(), expectedVal * (1-maxRelDif));
-                    double rb = Math.max(expectedVal + kv.getValue().getTrainStdDev(), expectedVal * (1+maxRelDif));
-                    if (val < lb || val > rb) {
-                        TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb);
-                        if (!kv.getValue().validateOutlier(outlier)) {
-                            continue;
-                        }
-                        res.addOutlier(outlier);
-                    } else {
-                        res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb));
-                    }
-                }
-            } catch (Exception e) {
-                dataLoader.log(dataLoader.LOG_ERROR, getClass().getSimpleName(), e.getMessage());
+            // Reliable?
+            double maxMse = 0.10; // 95% = 0.05
+            double relMse = r.getMeanSquareError() / r.getTotalSumSquares();
+            if (relMse > maxMse) {
+                unreliable(dataLoader, "Unreliable based on relative mean square error crosscheck (is {} exceeds {})", relMse, maxMse);
+                return;
             }
+
+            // Predict
+            double maxRelDif = 0.4; // Peaks are highly fluctuant
+            double[] expected = r.predict(timeserie.getTimestamps(), timeserie.getClassifyStart(), timeserie.size());
+            double[] lower = new double[expected.length];
+            double[] upper = new double[expected.length];
+            ForecastBand.relativeOrStdDev(timeserie.getTrainStdDev(), maxRelDif).apply(expected, lower, upper, expected.length);
+            classifyBounds(dataLoader, res, timeserie, expected, lower, upper);
+        } catch (Exception e) {
+            dataLoader.log(dataLoader.LOG_ERROR, getClass().getSimpleName(), e.getMessage());
         }
-        return res;
     }
 }
@@ -0,0 +1,95 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in nanoseconds, 8 sub buckets per power of two (at most 12.5% error), recording does not allocate
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(_index(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    // Values below SUB_BUCKETS are exact, above that the top bits after the leading one pick the sub bucket
+    private static int _index(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) ((v >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Highest value that falls in a bucket
+    private static long _upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lower = (1L << exp) | (sub << (exp - SUB_BUCKET_BITS));
+        return lower + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : Double.NaN;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), capped at the recorded maximum
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0D * n));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(_upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0L);
+        }
+        count.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+}
@@ -0,0 +1,30 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+
+/**
+ * Snapshot of a simple regression line, intercept + slope * ts
+ */
+public class LinearForecastModel extends AbstractForecastModel {
+    private final double intercept;
+    private final double slope;
+
+    public LinearForecastModel(SimpleRegression r, ForecastBand band) {
+        super(band);
+        // Same arithmetic as SimpleRegression.predict, computed once
+        slope = r.getSlope();
+        intercept = r.getIntercept();
+    }
+
+    public LinearForecastModel(LinearRegression r, ForecastBand band) {
+        super(band);
+        slope = r.getSlope();
+        intercept = r.getIntercept();
+    }
+
+    protected void predict(long[] ts, double[] outExpected) {
+        for (int i = 0; i < ts.length; i++) {
+            outExpected[i] = intercept + slope * (double)ts[i];
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Online least squares line y = intercept + slope * x, the same centered updates as commons-math SimpleRegression with a primitive snapshot
+ */
+public class LinearRegression {
+    private long n = 0;
+    private double sumX = 0.0D;
+    private double sumY = 0.0D;
+
+    // Means and sums of (cross) products of the deviations from them
+    private double xbar = 0.0D;
+    private double ybar = 0.0D;
+    private double sumXX = 0.0D;
+    private double sumYY = 0.0D;
+    private double sumXY = 0.0D;
+
+    public void addData(double x, double y) {
+        if (n == 0) {
+            xbar = x;
+            ybar = y;
+        } else {
+            double fact1 = 1.0D + n;
+            double fact2 = n / (1.0D + n);
+            double dx = x - xbar;
+            double dy = y - ybar;
+            sumXX += dx * dx * fact2;
+            sumYY += dy * dy * fact2;
+            sumXY += dx * dy * fact2;
+            xbar += dx / fact1;
+            ybar += dy / fact1;
+        }
+        sumX += x;
+        sumY += y;
+        n++;
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    // NaN with less than two points or without spread in x
+    public double getSlope() {
+        if (n < 2 || Math.abs(sumXX) < 10 * Double.MIN_VALUE) {
+            return Double.NaN;
+        }
+        return sumXY / sumXX;
+    }
+
+    public double getIntercept() {
+        return (sumY - getSlope() * sumX) / n;
+    }
+
+    public double predict(double x) {
+        double slope = getSlope();
+        return (sumY - slope * sumX) / n + slope * x;
+    }
+
+    public double getSumSquaredErrors() {
+        return Math.max(0.0D, sumYY - sumXY * sumXY / sumXX);
+    }
+
+    public double getTotalSumSquares() {
+        if (n < 2) {
+            return Double.NaN;
+        }
+        return sumYY;
+    }
+
+    public double getMeanSquareError() {
+        if (n < 3) {
+            return Double.NaN;
+        }
+        return getSumSquaredErrors() / (n - 2);
+    }
+
+    public double getSlopeStdErr() {
+        return Math.sqrt(getMeanSquareError() / sumXX);
+    }
+
+    // Half width of the 95% confidence interval of the slope
+    public double getSlopeConfidenceInterval() {
+        if (n < 3) {
+            return Double.NaN;
+        }
+        return getSlopeStdErr() * new TDistribution(n - 2).inverseCumulativeProbability(1.0D - 0.05D / 2.0D);
+    }
+
+    // Snapshot state, every accumulator so adding continues exactly where it left off
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(n);
+        out.writeDouble(sumX);
+        out.writeDouble(sumY);
+        out.writeDouble(xbar);
+        out.writeDouble(ybar);
+        out.writeDouble(sumXX);
+        out.writeDouble(sumYY);
+        out.writeDouble(sumXY);
+    }
+
+    public static LinearRegression read(DataInput in) throws IOException {
+        LinearRegression r = new LinearRegression();
+        r.n = in.readLong();
+        if (r.n < 0) {
+            throw new IOException("Invalid regression size " + r.n);
+        }
+        r.sumX = in.readDouble();
+        r.sumY = in.readDouble();
+        r.xbar = in.readDouble();
+        r.ybar = in.readDouble();
+        r.sumXX = in.readDouble();
+        r.sumYY = in.readDouble();
+        r.sumXY = in.readDouble();
+        return r;
+    }
+}
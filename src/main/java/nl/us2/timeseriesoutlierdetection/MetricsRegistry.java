@@ -0,0 +1,163 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process metrics, latency histograms, counters and gauges by name and component. Recording only allocates the first time a name and component is seen
+ */
+public class MetricsRegistry implements IMetrics {
+    private static final String ALL = "*"; // Component of stage wide metrics
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>> latencies = new ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>> counters = new ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Gauge>> gauges = new ConcurrentHashMap<String, ConcurrentHashMap<String, Gauge>>();
+
+    // Last and highest value seen
+    public static class Gauge {
+        private final AtomicLong last = new AtomicLong();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        private void set(long value) {
+            last.set(value);
+            long m = max.get();
+            while (value > m && !max.compareAndSet(m, value)) {
+                m = max.get();
+            }
+        }
+
+        public long getLast() {
+            return last.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+    }
+
+    public void recordLatency(String stage, String component, long nanos) {
+        LatencyHistogram h = _get(latencies, stage, component);
+        if (h == null) {
+            h = _putIfAbsent(latencies, stage, component, new LatencyHistogram());
+        }
+        h.record(nanos);
+    }
+
+    public void increment(String counter, String component, long delta) {
+        AtomicLong c = _get(counters, counter, component);
+        if (c == null) {
+            c = _putIfAbsent(counters, counter, component, new AtomicLong());
+        }
+        c.addAndGet(delta);
+    }
+
+    public void gauge(String name, String component, long value) {
+        Gauge g = _get(gauges, name, component);
+        if (g == null) {
+            g = _putIfAbsent(gauges, name, component, new Gauge());
+        }
+        g.set(value);
+    }
+
+    private static <T> T _get(ConcurrentHashMap<String, ConcurrentHashMap<String, T>> map, String name, String component) {
+        ConcurrentHashMap<String, T> byComponent = map.get(name);
+        return byComponent == null ? null : byComponent.get(component == null ? ALL : component);
+    }
+
+    private static <T> T _putIfAbsent(ConcurrentHashMap<String, ConcurrentHashMap<String, T>> map, String name, String component, T value) {
+        ConcurrentHashMap<String, T> byComponent = map.get(name);
+        if (byComponent == null) {
+            map.putIfAbsent(name, new ConcurrentHashMap<String, T>());
+            byComponent = map.get(name);
+        }
+        T existing = byComponent.putIfAbsent(component == null ? ALL : component, value);
+        return existing == null ? value : existing;
+    }
+
+    // Histogram of a stage and component (null for stage wide), null if nothing was recorded
+    public LatencyHistogram getLatency(String stage, String component) {
+        return _get(latencies, stage, component);
+    }
+
+    // Counter value, 0 if never incremented
+    public long getCounter(String counter, String component) {
+        AtomicLong c = _get(counters, counter, component);
+        return c == null ? 0L : c.get();
+    }
+
+    public Gauge getGauge(String name, String component) {
+        return _get(gauges, name, component);
+    }
+
+    // Sum of a counter over all components
+    public long getCounterTotal(String counter) {
+        long total = 0L;
+        ConcurrentHashMap<String, AtomicLong> byComponent = counters.get(counter);
+        if (byComponent != null) {
+            for (AtomicLong c : byComponent.values()) {
+                total += c.get();
+            }
+        }
+        return total;
+    }
+
+    public void reset() {
+        latencies.clear();
+        counters.clear();
+        gauges.clear();
+    }
+
+    // Point in time text dump, sorted by name and component. Latencies in microseconds
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, TreeMap<String, LatencyHistogram>> kv : _sorted(latencies).entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> ckv : kv.getValue().entrySet()) {
+                LatencyHistogram h = ckv.getValue();
+                sb.append(String.format("latency %s %s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus total=%.1fms%n",
+                        kv.getKey(), ckv.getKey(), h.getCount(), h.getMean() / 1000.0D,
+                        h.getPercentile(50) / 1000.0D, h.getPercentile(90) / 1000.0D, h.getPercentile(99) / 1000.0D,
+                        h.getMax() / 1000.0D, h.getSum() / 1000000.0D));
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, AtomicLong>> kv : _sorted(counters).entrySet()) {
+            for (Map.Entry<String, AtomicLong> ckv : kv.getValue().entrySet()) {
+                sb.append(String.format("counter %s %s %d%n", kv.getKey(), ckv.getKey(), ckv.getValue().get()));
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, Gauge>> kv : _sorted(gauges).entrySet()) {
+            for (Map.Entry<String, Gauge> ckv : kv.getValue().entrySet()) {
+                sb.append(String.format("gauge %s %s last=%d max=%d%n", kv.getKey(), ckv.getKey(), ckv.getValue().getLast(), ckv.getValue().getMax()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static <T> TreeMap<String, TreeMap<String, T>> _sorted(ConcurrentMap<String, ConcurrentHashMap<String, T>> map) {
+        TreeMap<String, TreeMap<String, T>> res = new TreeMap<String, TreeMap<String, T>>();
+        for (Map.Entry<String, ConcurrentHashMap<String, T>> kv : map.entrySet()) {
+            res.put(kv.getKey(), new TreeMap<String, T>(kv.getValue()));
+        }
+        return res;
+    }
+
+    public void dump(PrintStream out) {
+        out.print(snapshot());
+        out.flush();
+    }
+
+    public void dump(File file) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        try {
+            dump(out);
+        } finally {
+            out.close();
+        }
+    }
+}
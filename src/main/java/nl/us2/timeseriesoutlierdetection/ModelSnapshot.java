@@ -0,0 +1,181 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot file of model states: magic, version, entry payload and a CRC32 of the payload
+ */
+public class ModelSnapshot {
+    public static final int MAGIC = 0x54534F44; // "TSOD"
+    public static final int VERSION = 4; // Bump when any model changes its snapshot layout
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(); // By serie name and analyzer
+
+    // One model state, marker is owner defined (e.g. last learned timestamp or training fingerprint)
+    public static class Entry {
+        private final String serieName;
+        private final String analyzer;
+        private final long marker;
+        private final ValueNormalizationModes normalizationMode; // Of the values the model learned
+        private final long resolution; // Bucket size in seconds of the values the model learned, 0 if not relevant
+        private final byte[] data;
+
+        public Entry(String serieName, String analyzer, long marker, ValueNormalizationModes normalizationMode, long resolution, byte[] data) {
+            this.serieName = serieName;
+            this.analyzer = analyzer;
+            this.marker = marker;
+            this.normalizationMode = normalizationMode;
+            this.resolution = resolution;
+            this.data = data;
+        }
+
+        public String getSerieName() {
+            return serieName;
+        }
+
+        public String getAnalyzer() {
+            return analyzer;
+        }
+
+        public long getMarker() {
+            return marker;
+        }
+
+        public ValueNormalizationModes getNormalizationMode() {
+            return normalizationMode;
+        }
+
+        public long getResolution() {
+            return resolution;
+        }
+
+        public DataInputStream getData() {
+            return new DataInputStream(new ByteArrayInputStream(data));
+        }
+    }
+
+    public void add(String serieName, String analyzer, long marker, byte[] data) {
+        add(serieName, analyzer, marker, ValueNormalizationModes.NONE, 0L, data);
+    }
+
+    public void add(String serieName, String analyzer, long marker, ValueNormalizationModes normalizationMode, long resolution, byte[] data) {
+        entries.put(_key(serieName, analyzer), new Entry(serieName, analyzer, marker, normalizationMode, resolution, data));
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    // Entry of a serie and analyzer, null if there is none
+    public Entry get(String serieName, String analyzer) {
+        return entries.get(_key(serieName, analyzer));
+    }
+
+    private static String _key(String serieName, String analyzer) {
+        return analyzer + "\n" + serieName;
+    }
+
+    // Writes to a temporary file next to the target and moves it in place, a crash never leaves a half written snapshot
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bos);
+        payload.writeInt(entries.size());
+        for (Entry e : entries.values()) {
+            payload.writeUTF(e.serieName);
+            payload.writeUTF(e.analyzer);
+            payload.writeLong(e.marker);
+            payload.writeUTF(e.normalizationMode.name());
+            payload.writeLong(e.resolution);
+            payload.writeInt(e.data.length);
+            payload.write(e.data);
+        }
+        payload.flush();
+        byte[] bytes = bos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        boolean moved = false;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeLong(crc.getValue());
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            // Don't leave a partial temporary file behind, e.g. on a full disk
+            if (!moved) {
+                tmp.delete();
+            }
+        }
+    }
+
+    // Reads a snapshot, throws on a foreign file, another version or a checksum mismatch
+    public static ModelSnapshot read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        byte[] bytes;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a model snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported model snapshot version " + version + " (expected " + VERSION + ")");
+            }
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Corrupt model snapshot length " + length);
+            }
+            bytes = new byte[length];
+            in.readFully(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException("Model snapshot checksum mismatch: " + file);
+            }
+        } finally {
+            in.close();
+        }
+
+        ModelSnapshot snapshot = new ModelSnapshot();
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = payload.readInt();
+        for (int i = 0; i < count; i++) {
+            String serieName = payload.readUTF();
+            String analyzer = payload.readUTF();
+            long marker = payload.readLong();
+            ValueNormalizationModes normalizationMode;
+            try {
+                normalizationMode = ValueNormalizationModes.valueOf(payload.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown normalization mode in model snapshot", e);
+            }
+            long resolution = payload.readLong();
+            byte[] data = new byte[payload.readInt()];
+            payload.readFully(data);
+            snapshot.add(serieName, analyzer, marker, normalizationMode, resolution, data);
+        }
+        return snapshot;
+    }
+}
@@ -1,103 +1,65 @@
 package nl.us2.timeseriesoutlierdetection;
 
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.Observation;
-import net.sourceforge.openforecast.models.MovingAverageModel;
-
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Created by robin on 21/06/15.
  */
 public class MovingAverageTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
+    // Window sizes in data points, the one with the lowest training error is used
+    public static final int[] DEFAULT_WINDOWS = new int[]{ 3, 5, 10, 30, 60 };
+    private final int[] windows;
+    private static final double ROLLING_STDDEV_MP = 2.0D;
 
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-            try {
-                int window = 10; // @todo dynamic
-                MovingAverageModel m = new MovingAverageModel(window);
+    public MovingAverageTimeserieAnalyzer() {
+        this(DEFAULT_WINDOWS);
+    }
 
-                // Create train dataset
-                DataSet dsTrain = new DataSet();
-                long count = 0L;
-                double total = 0D;
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                    long ts = tskv.getKey();
-                    double val = tskv.getValue();
-                    total += val;
-                    count++;
-                    Observation o = new Observation(val);
-                    o.setIndependentValue("ts", ts);
-                    dsTrain.add(o);
-                }
+    public MovingAverageTimeserieAnalyzer(int... windows) {
+        this.windows = windows.clone();
+    }
 
-                // Avg
-                double avg = total / (double) count;
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        try {
+            // Train all windows in one pass, missing points are no forecast targets
+            RollingWindowModel m = RollingWindowModel.fit(timeserie.getTrainValues(), 0, timeserie.getTrainSize(), windows, timeserie.getMissing());
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Window = {}", m.getWindow());
 
-                // Total sum of squares
-                double tsos = 0D;
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                    double val = tskv.getValue();
-                    tsos += Math.pow(val - avg, 2.0D);
-                }
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = " + avg);
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum squares = " + tsos);
+            // Avg
+            TimeserieStatistics stats = timeserie.getTrainStatistics();
+            double avg = stats.getMean();
 
-                // Load data
-                m.init(dsTrain);
+            // Total sum of squares
+            double tsos = stats.getTotalSumSquares();
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = {}", avg);
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum squares = {}", tsos);
 
-                // Validate, total sum of squares must be bigger than 0 as else there is no delta between avg and data values
-                double mse = m.getMSE();
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = " + mse);// Reliable?
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute deviation = " + m.getMAD());// Reliable?
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute percentage error = " + m.getMAPE());// Reliable?
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Akaike Information Criteria = " + m.getAIC());// Reliable? less is better
-                double maxMse = 0.05; // 95% = 0.05
-                double relMse = mse / tsos;
-                if (relMse > maxMse && tsos > 0D) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on relative mean square error crosscheck (is " + relMse + " exceeds " + maxMse + ")");
-                    continue;
-                }
-                // Average absolute error bigger than standard deviation is not acceptable
-                if (kv.getValue().getTrainStdDev() > 0 && m.getMAD() > kv.getValue().getTrainStdDev()) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on MAD (mean absolute error) / standard deviation crosscheck (MAD " + m.getMAD() + " exceeds stddev " + kv.getValue().getTrainStdDev() + ")");
-                    continue;
-                }
-                // Average absolute error bigger than average is not acceptable
-                if (m.getMAD() > kv.getValue().getTrainAvg()) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on MAD (mean absolute error) / average crosscheck (MAD " + m.getMAD() + " exceeds avg " + kv.getValue().getTrainAvg() + ")");
-                    continue;
-                }
+            // Validate, total sum of squares must be bigger than 0 as else there is no delta between avg and data values
+            double mse = m.getMSE();
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = {}", mse);// Reliable?
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute deviation = {}", m.getMAD());// Reliable?
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute percentage error = {}", m.getMAPE());// Reliable?
+            if (!reliableFit(dataLoader, timeserie, mse, m.getMAD(), 0.05D)) {
+                return;
+            }
 
-                // Classify
-                double maxRelDif = Math.max(0.5 * relMse, 0.05); // Half of the expected error is acceptable, or 5%
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                    long ts = tskv.getKey();
-                    double val = tskv.getValue();
-                    Observation o = new Observation(0.0D); // Fake value
-                    o.setIndependentValue("ts", ts);
-                    double expectedVal = m.forecast(o);
-                    double lb = Math.min(expectedVal - kv.getValue().getTrainStdDev(), expectedVal * (1 - maxRelDif));
-                    double rb = Math.max(expectedVal + kv.getValue().getTrainStdDev(), expectedVal * (1 + maxRelDif));
-                    dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), ts + " " + val + " " + expectedVal);
-                    if (val < lb || val > rb) {
-                        TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb);
-                        if (!kv.getValue().validateOutlier(outlier)) {
-                            continue;
-                        }
-                        res.addOutlier(outlier);
-                    } else {
-                        res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb));
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println(e.getMessage());
-                e.printStackTrace();
+            // Classify
+            double maxRelDif = Math.max(0.5 * mse / tsos, 0.05); // Half of the expected error is acceptable, or 5%
+            // Rolling mean and standard deviation of the window before each point, bands widen when the window is more volatile than the serie
+            int from = timeserie.getClassifyStart();
+            int n = timeserie.size() - from;
+            double[] expected = new double[n];
+            double[] stdDevs = new double[n];
+            double[] lower = new double[n];
+            double[] upper = new double[n];
+            m.rolling(timeserie.getValues(), from, timeserie.size(), expected, stdDevs);
+            for (int i = 0; i < n; i++) {
+                double stdDev = Math.max(timeserie.getTrainStdDev(), ROLLING_STDDEV_MP * stdDevs[i]);
+                lower[i] = Math.min(expected[i] - stdDev, expected[i] * (1-maxRelDif));
+                upper[i] = Math.max(expected[i] + stdDev, expected[i] * (1+maxRelDif));
             }
+            classifyBounds(dataLoader, res, timeserie, expected, lower, upper);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            e.printStackTrace();
         }
-        return res;
     }
 }
@@ -2,6 +2,7 @@ package nl.us2.timeseriesoutlierdetection;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by robin on 21/06/15.
@@ -9,13 +10,13 @@ import java.util.HashMap;
 public class MutableDataLoader extends AbstractDataLoader {
     private ArrayList<Long> expectedErrors;
     private HashMap<String, String> settings;
-    private HashMap<String, HashMap<String, String>> rawSeries;
+    private RawSeriesCollector rawSeries;
 
     public MutableDataLoader(String name) {
         setConfig("name", name);
         expectedErrors = new ArrayList<Long>();
         settings = new HashMap<String, String>();
-        rawSeries = new HashMap<String, HashMap<String, String>>();
+        rawSeries = new RawSeriesCollector();
     }
 
     public ArrayList<Long> loadExpectedErrors() {
@@ -36,19 +37,32 @@ public class MutableDataLoader extends AbstractDataLoader {
         return settings;
     }
 
+    public void addData(String serie, long ts, double val) {
+        rawSeries.add(serie, ts, val);
+    }
+
+    public void addData(String serie, long[] ts, double[] vals) {
+        rawSeries.addAll(serie, ts, vals, Math.min(ts.length, vals.length));
+    }
+
     public void addData(String serie, HashMap<String, String> values) {
-        HashMap<String, String> tmp = rawSeries.getOrDefault(serie, new HashMap<String, String>());
-        tmp.putAll(values);
-        rawSeries.put(serie, tmp);
+        for (Map.Entry<String, String> kv : values.entrySet()) {
+            addData(serie, kv.getKey(), kv.getValue());
+        }
     }
 
     public void addData(String serie, String ts, String val) {
-        HashMap<String, String> tmp = rawSeries.getOrDefault(serie, new HashMap<String, String>());
-        tmp.put(ts, val);
-        rawSeries.put(serie, tmp);
+        addData(serie, Long.parseLong(ts), Double.parseDouble(val));
     }
 
     public HashMap<String, HashMap<String, String>> loadRawData() throws Exception {
-        return rawSeries;
+        return _rawDataAsStrings();
+    }
+
+    public void loadRawData(RawSeriesSink sink) {
+        for (Map.Entry<String, RawSeries> kv : rawSeries.getSeries().entrySet()) {
+            RawSeries raw = kv.getValue();
+            sink.addAll(kv.getKey(), raw.getTimestamps(), raw.getValues(), raw.size());
+        }
     }
 }
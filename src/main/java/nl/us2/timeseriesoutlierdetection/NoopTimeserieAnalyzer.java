@@ -1,14 +1,10 @@
 package nl.us2.timeseriesoutlierdetection;
 
-import java.util.HashMap;
-
 /**
  * Created by robin on 21/06/15.
  */
 public class NoopTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
         // Does absolutely nothing
-        return res;
     }
 }
@@ -1,50 +1,78 @@
 package nl.us2.timeseriesoutlierdetection;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Created by robin on 21/06/15.
  */
-public class NormalDistributionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
-
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-            // Average
-            double avg = kv.getValue().getTrainAvg();
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = " + avg);
-
-            // Stddev
-            double stdDev = kv.getValue().getTrainStdDev();
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Stddev = " + stdDev);
-
-            // Is this filter reliable?
-            double stdDevLim = 0.25 * avg; // @todo dynamic
-            if (stdDev > stdDevLim || Double.isInfinite(avg) || Double.isNaN(stdDev)) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on standard deviation average crosscheck (is " + stdDev + " exceeds " + stdDevLim + ")");
-                continue;
-            }
+public class NormalDistributionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ISnapshotTimeserieAnalyzer {
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        IStreamingTimeserieModel m = trainStreaming(dataLoader, timeserie);
+        if (m == null) {
+            return;
+        }
+
+        // Detect outliers
+        classifyStreaming(dataLoader, res, timeserie, m);
+    }
+
+    public IStreamingTimeserieModel trainStreaming(AbstractDataLoader dataLoader, Timeseries timeserie) {
+        // Average
+        double avg = timeserie.getTrainAvg();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = {}", avg);
+
+        // Stddev
+        double stdDev = timeserie.getTrainStdDev();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Stddev = {}", stdDev);
+
+        // Is this filter reliable?
+        double stdDevLim = 0.25 * avg; // @todo dynamic
+        if (stdDev > stdDevLim || Double.isInfinite(avg) || Double.isNaN(stdDev)) {
+            unreliable(dataLoader, "Unreliable based on standard deviation average crosscheck (is {} exceeds {})", stdDev, stdDevLim);
+            return null;
+        }
+        return new Model(timeserie, new TimeserieStatistics(timeserie.getTrainStatistics()));
+    }
 
-            // Detect outliers
+    public IStreamingTimeserieModel readSnapshot(Timeseries timeserie, DataInput in) throws IOException {
+        return new Model(timeserie, TimeserieStatistics.read(in));
+    }
+
+    // Running moments, continues from the training statistics
+    private class Model implements ISnapshotTimeserieModel {
+        private final Timeseries timeserie;
+        private final TimeserieStatistics stats;
+
+        private Model(Timeseries timeserie, TimeserieStatistics stats) {
+            this.timeserie = timeserie;
+            this.stats = stats;
+        }
+
+        public void writeSnapshot(DataOutput out) throws IOException {
+            stats.write(out);
+        }
+
+        public TimeserieOutlier classify(long ts, double val) {
+            double avg = stats.getMean();
+            double stdDev = stats.getStdDev();
             double maxStdDevMp = 1.0D;
             double maxErr = Math.max(maxStdDevMp * stdDev, 0.05 * avg); // 1x std deviation or 5% of average
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                double val = tskv.getValue();
-                double rb = avg + maxErr;
-                double lb = avg - maxErr;
-                if (val < lb || val > rb) {
-                    TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), avg, lb, rb);
-                    if (!kv.getValue().validateOutlier(outlier)) {
-                        continue;
-                    }
-                    res.addOutlier(outlier);
-                } else {
-                    res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), avg, lb, rb));
+            double rb = avg + maxErr;
+            double lb = avg - maxErr;
+            if (val < lb || val > rb) {
+                TimeserieOutlier outlier = new TimeserieOutlier(NormalDistributionTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, avg, lb, rb);
+                if (!timeserie.validateOutlier(outlier)) {
+                    return null;
                 }
+                return outlier;
             }
+            return new TimeserieInlier(NormalDistributionTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, avg, lb, rb);
+        }
+
+        public void learn(long ts, double val) {
+            stats.add(val);
         }
-        return res;
     }
 }
@@ -10,7 +10,13 @@ import edu.berkeley.compbio.jlibsvm.oneclass.OneClassSVC;
 import edu.berkeley.compbio.jlibsvm.scaler.NoopScalingModelLearner;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 
-import java.util.HashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -18,97 +24,179 @@ import java.util.Map;
  */
 public class OneClassSVMTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
     private static final double MIN_VALIDATION_RATE = 0.9;
+    private static final float GAMMA = 0.1F;
+    public static final int DEFAULT_MAX_CACHED_MODELS = 1024;
 
-    public int getInlierScore() {
-        // Overrides the default, this model is not used often, but if it is, it is reliable mostly for inliers
-        return DEFAULT_INLIER_SCORE * 3;
+    // Trained models by serie and training window, least recently used are evicted. Analyzers are shared between threads
+    private final LinkedHashMap<ModelKey, DenseModel> cache;
+
+    public OneClassSVMTimeserieAnalyzer() {
+        this(DEFAULT_MAX_CACHED_MODELS);
     }
 
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
-
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-
-            // Kernel
-            KernelFunction kernel = new GaussianRBFKernel(0.1F);
-
-            // Params: see http://mlpy.sourceforge.net/docs/3.4/svm.html
-            ImmutableSvmParameterPoint.Builder paramPointBuilder = new ImmutableSvmParameterPoint.Builder();
-            paramPointBuilder.kernel = kernel;
-            paramPointBuilder.nu = 0.05F; // The parameter nu is an upper bound on the fraction of margin errors and a lower bound of the fraction of support vectors relative to the total number of training examples. For example, if you set it to 0.05 you are guaranteed to find at most 5% of your training examples being misclassified (at the cost of a small margin, though) and at least 5% of your training examples being support vectors.
-            paramPointBuilder.eps = 0.00001F;
-            ImmutableSvmParameterPoint param = paramPointBuilder.build();
-
-            // Problem, P = point, L = label
-            int trainSamples = (int)Math.floor(kv.getValue().getDataTrain().size() * 0.7);
-            MutableOneClassProblemImpl problem = new MutableOneClassProblemImpl(trainSamples, Float.class);
-            int samplesProcessed = 0;
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                SparseVector v = new SparseVector(1);
-                v.indexes[0] = tsToIndex(tskv.getKey());
-                v.values[0] = convertVal(tskv.getValue().doubleValue());
-                problem.addExampleFloat(v, 1.0F);
-                samplesProcessed++;
-                if (samplesProcessed == trainSamples) {
-                    break;
-                }
+    public OneClassSVMTimeserieAnalyzer(final int maxCachedModels) {
+        cache = new LinkedHashMap<ModelKey, DenseModel>(16, 0.75F, true) {
+            protected boolean removeEldestEntry(Map.Entry<ModelKey, DenseModel> eldest) {
+                return size() > maxCachedModels;
             }
+        };
+    }
 
-            // SVM: The range of C is from zero to infinity but nu is always between [0,1]. A nice property of nu is that it is related to the ratio of support vectors and the ratio of the training error.
-            OneClassSVC svm = new OneClassSVC();
+    // Writes the cached models, the marker of every entry is the training fingerprint
+    public void saveModels(File file) throws IOException {
+        ModelSnapshot snapshot = new ModelSnapshot();
+        synchronized (cache) {
+            for (Map.Entry<ModelKey, DenseModel> kv : cache.entrySet()) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bos);
+                kv.getValue().write(out);
+                out.flush();
+                snapshot.add(kv.getKey().serieName, getClass().getName(), kv.getKey().fingerprint, bos.toByteArray());
+            }
+        }
+        snapshot.write(file);
+    }
 
-            // Scale problem, disabled as we only have one real dimension, so there will be no dominant features
-            OneClassProblem scaledProblem = problem.getScaledCopy(new NoopScalingModelLearner());
+    // Fills the cache from saveModels, a model is only used while its training window is unchanged
+    public void loadModels(File file) throws IOException {
+        ModelSnapshot snapshot = ModelSnapshot.read(file);
+        synchronized (cache) {
+            for (ModelSnapshot.Entry e : snapshot.getEntries()) {
+                if (!e.getAnalyzer().equals(getClass().getName())) {
+                    continue;
+                }
+                cache.put(new ModelKey(e.getSerieName(), e.getMarker()), DenseModel.read(e.getData()));
+            }
+        }
+    }
+
+    public int getInlierScore() {
+        // Overrides the default, this model is not used often, but if it is, it is reliable mostly for inliers
+        return DEFAULT_INLIER_SCORE * 3;
+    }
 
-            // Train
-            OneClassModel model = (OneClassModel) svm.train(scaledProblem, param);
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        // Unchanged training window, reuse the model and its validation
+        ModelKey key = new ModelKey(timeserie.getSerieName(), fingerprint(timeserie));
+        DenseModel model;
+        synchronized (cache) {
+            model = cache.get(key);
+        }
+        if (model == null) {
+            model = train(dataLoader, timeserie);
+            if (model == null) {
+                // Cancelled during training
+                return;
+            }
+            synchronized (cache) {
+                cache.put(key, model);
+            }
+        } else {
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Cached model for {}", timeserie.getSerieName());
+        }
+        if (model.validationRate < MIN_VALIDATION_RATE) {
+            unreliable(dataLoader, "Unreliable based on validation rate cross validation (is {} below {})", model.validationRate, MIN_VALIDATION_RATE);
+            return;
+        }
 
-            // Validate
-            SparseVector vv = new SparseVector(1);
-            int matched = 0;
-            int tested = 0;
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                samplesProcessed++;
-                if (samplesProcessed < trainSamples) {
+        // Predict
+        long classifyStart = System.nanoTime();
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getValues();
+        for (int i = timeserie.getClassifyStart(); i < timeserie.size(); i++) {
+            if (timeserie.isMissing(i)) {
+                continue;
+            }
+            double prob = model.decision(convertVal(values[i]));
+            if (prob < 0) {
+                // -1 is outlier
+                TimeserieOutlier outlier = new TimeserieOutlier(this, timeserie.getSerieName(), timestamps[i], values[i], Double.NaN, Double.NaN, Double.NaN);
+                if (!timeserie.validateOutlier(outlier)) {
                     continue;
                 }
-                tested++;
-                vv.indexes[0] = tsToIndex(tskv.getKey());
-                vv.values[0] = convertVal(tskv.getValue().doubleValue());
-                double prob = model.predictValue(vv);
-                if (prob > 0) {
-                    // 1.0 = match
-                    matched++;
-                }
+                res.addOutlier(outlier);
+            } else {
+                res.addInlier(new TimeserieInlier(this, timeserie.getSerieName(), timestamps[i], values[i], Double.NaN, Double.NaN, Double.NaN));
             }
-            double validationRate = (double)matched / (double)tested;
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Validation rate " + validationRate + " (" + matched + "/" + tested + ")");
-            if (validationRate < MIN_VALIDATION_RATE) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on validation rate cross validation (is " + validationRate + " below " + MIN_VALIDATION_RATE + ")");
+        }
+        classified(dataLoader, classifyStart, timeserie);
+    }
+
+    // Trains and validates on the training window, null when cancelled
+    private DenseModel train(AbstractDataLoader dataLoader, Timeseries timeserie) {
+        // Kernel
+        KernelFunction kernel = new GaussianRBFKernel(GAMMA);
+
+        // Params: see http://mlpy.sourceforge.net/docs/3.4/svm.html
+        ImmutableSvmParameterPoint.Builder paramPointBuilder = new ImmutableSvmParameterPoint.Builder();
+        paramPointBuilder.kernel = kernel;
+        paramPointBuilder.nu = 0.05F; // The parameter nu is an upper bound on the fraction of margin errors and a lower bound of the fraction of support vectors relative to the total number of training examples. For example, if you set it to 0.05 you are guaranteed to find at most 5% of your training examples being misclassified (at the cost of a small margin, though) and at least 5% of your training examples being support vectors.
+        paramPointBuilder.eps = 0.00001F;
+        ImmutableSvmParameterPoint param = paramPointBuilder.build();
+
+        // Problem, P = point, L = label
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getTrainValues();
+        int trainSize = timeserie.getTrainSize();
+        int trainSamples = (int)Math.floor(trainSize * 0.7);
+        GapRanges missing = timeserie.getMissing();
+        MutableOneClassProblemImpl problem = new MutableOneClassProblemImpl(trainSamples - missing.pointsIn(0, trainSamples), Float.class);
+        int gap = 0;
+        for (int i = 0; i < trainSamples; i++) {
+            // Missing points are no examples
+            if (gap < missing.size() && i >= missing.getStart(gap)) {
+                i = missing.getEnd(gap++) - 1;
                 continue;
             }
+            SparseVector v = new SparseVector(1);
+            v.indexes[0] = tsToIndex(timestamps[i]);
+            v.values[0] = convertVal(values[i]);
+            problem.addExampleFloat(v, 1.0F);
+        }
 
-            // Predict
-            SparseVector vp = new SparseVector(1);
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                vp.indexes[0] = tsToIndex(tskv.getKey());
-                vp.values[0] = convertVal(tskv.getValue().doubleValue());
-                double prob = model.predictValue(vp);
-                if (prob < 0) {
-                    // -1 is outlier
-                    TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), Double.NaN, Double.NaN, Double.NaN);
-                    if (!kv.getValue().validateOutlier(outlier)) {
-                        continue;
-                    }
-                    res.addOutlier(outlier);
-                } else {
-                    res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), Double.NaN, Double.NaN, Double.NaN));
-                }
+        // SVM: The range of C is from zero to infinity but nu is always between [0,1]. A nice property of nu is that it is related to the ratio of support vectors and the ratio of the training error.
+        OneClassSVC svm = new OneClassSVC();
+
+        // Scale problem, disabled as we only have one real dimension, so there will be no dominant features
+        OneClassProblem scaledProblem = problem.getScaledCopy(new NoopScalingModelLearner());
+
+        // Train
+        DenseModel model = new DenseModel((OneClassModel) svm.train(scaledProblem, param));
+        if (isCancelled()) {
+            return null;
+        }
+
+        // Validate
+        int matched = 0;
+        int tested = 0;
+        gap = 0;
+        for (int i = 0; i < trainSize; i++) {
+            if (gap < missing.size() && i >= missing.getStart(gap)) {
+                i = missing.getEnd(gap++) - 1;
+                continue;
+            }
+            tested++;
+            double prob = model.decision(convertVal(values[i]));
+            if (prob > 0) {
+                // 1.0 = match
+                matched++;
             }
         }
+        model.validationRate = (double)matched / (double)tested;
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Validation rate {} ({}/{})", model.validationRate, matched, tested);
+        return model;
+    }
 
-        return res;
+    // Hash of the training window, timestamps and values
+    private long fingerprint(Timeseries timeserie) {
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getTrainValues();
+        long h = 1125899906842597L;
+        for (int i = 0; i < timeserie.getTrainSize(); i++) {
+            h = 31 * h + timestamps[i];
+            h = 31 * h + Double.doubleToLongBits(values[i]);
+        }
+        return 31 * h + timeserie.getTrainSize();
     }
 
     private float convertVal(double val) {
@@ -123,4 +211,85 @@ public class OneClassSVMTimeserieAnalyzer extends AbstractTimeserieAnalyzer impl
         long rest = ts - (whole * secondsInHour);
         return (int)Math.floor(rest / secondsInMinute);*/
     }
+
+    private static class ModelKey {
+        private final String serieName;
+        private final long fingerprint;
+
+        private ModelKey(String serieName, long fingerprint) {
+            this.serieName = serieName;
+            this.fingerprint = fingerprint;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof ModelKey)) {
+                return false;
+            }
+            ModelKey other = (ModelKey) o;
+            return fingerprint == other.fingerprint && serieName.equals(other.serieName);
+        }
+
+        public int hashCode() {
+            return 31 * serieName.hashCode() + (int)(fingerprint ^ (fingerprint >>> 32));
+        }
+    }
+
+    // Decision function on the single feature: sum(alpha * exp(-gamma * (x - sv)^2)) - rho, no sparse vectors
+    private static class DenseModel {
+        private final double[] supportVectors;
+        private final double[] alphas;
+        private final double rho;
+        private double validationRate;
+
+        private DenseModel(OneClassModel model) {
+            int n = model.SVs.length;
+            supportVectors = new double[n];
+            for (int i = 0; i < n; i++) {
+                supportVectors[i] = ((SparseVector) model.SVs[i]).values[0];
+            }
+            alphas = model.alphas.clone();
+            rho = model.rho;
+        }
+
+        private DenseModel(double[] supportVectors, double[] alphas, double rho, double validationRate) {
+            this.supportVectors = supportVectors;
+            this.alphas = alphas;
+            this.rho = rho;
+            this.validationRate = validationRate;
+        }
+
+        private void write(DataOutput out) throws IOException {
+            out.writeInt(supportVectors.length);
+            for (int i = 0; i < supportVectors.length; i++) {
+                out.writeDouble(supportVectors[i]);
+                out.writeDouble(alphas[i]);
+            }
+            out.writeDouble(rho);
+            out.writeDouble(validationRate);
+        }
+
+        private static DenseModel read(DataInput in) throws IOException {
+            int n = in.readInt();
+            if (n < 0) {
+                throw new IOException("Invalid support vector count " + n);
+            }
+            double[] supportVectors = new double[n];
+            double[] alphas = new double[n];
+            for (int i = 0; i < n; i++) {
+                supportVectors[i] = in.readDouble();
+                alphas[i] = in.readDouble();
+            }
+            double rho = in.readDouble();
+            return new DenseModel(supportVectors, alphas, rho, in.readDouble());
+        }
+
+        private double decision(float x) {
+            double sum = 0.0D;
+            for (int i = 0; i < supportVectors.length; i++) {
+                double d = x - supportVectors[i];
+                sum += alphas[i] * Math.exp(-GAMMA * d * d);
+            }
+            return sum - rho;
+        }
+    }
 }
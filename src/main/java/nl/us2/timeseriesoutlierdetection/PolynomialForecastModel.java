@@ -0,0 +1,17 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Fitted in-house polynomial, evaluated with Horner's scheme on the regression's time axis
+ */
+public class PolynomialForecastModel extends AbstractForecastModel {
+    private final PolynomialRegression r;
+
+    public PolynomialForecastModel(PolynomialRegression r, ForecastBand band) {
+        super(band);
+        this.r = r;
+    }
+
+    protected void predict(long[] ts, double[] outExpected) {
+        r.predict(ts, outExpected, 0, ts.length);
+    }
+}
@@ -0,0 +1,202 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Least squares polynomial over timestamps, fitted from normal equation accumulators on centered and scaled time
+ */
+public class PolynomialRegression {
+    private final int degree;
+    private long center;
+    private double scale = 1.0D;
+    private boolean origin = false;
+    private double offset = 0.0D; // First value, a constant serie then fits exactly
+
+    // Normal equations, sum x^k for k <= 2 * degree and sum y * x^k for k <= degree
+    private final double[] powerSums;
+    private final double[] valueSums;
+    private long n = 0;
+
+    private double[] coefficients;
+
+    // Accuracy over the last evaluated window
+    private double mse = Double.NaN;
+    private double mad = Double.NaN;
+    private double mape = Double.NaN;
+    private double aic = Double.NaN;
+
+    public PolynomialRegression(int degree) {
+        if (degree < 0) {
+            throw new IllegalArgumentException("Degree must be 0 or more, got " + degree);
+        }
+        this.degree = degree;
+        powerSums = new double[2 * degree + 1];
+        valueSums = new double[degree + 1];
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    // Time axis, later data is expressed in the same units so accumulators stay valid
+    public void setOrigin(long center, double scale) {
+        if (n > 0) {
+            throw new IllegalStateException("Origin must be set before adding data");
+        }
+        this.center = center;
+        this.scale = scale > 0 ? scale : 1.0D;
+        origin = true;
+    }
+
+    // Single pass over sorted timestamps, the first call derives the origin from its range
+    public void addData(long[] ts, double[] y, int from, int to) {
+        if (to <= from) {
+            return;
+        }
+        if (!origin) {
+            long first = ts[from];
+            long last = ts[to - 1];
+            setOrigin(first + (last - first) / 2, (last - first) / 2.0D);
+        }
+        if (n == 0) {
+            offset = y[from];
+        }
+        int maxPower = powerSums.length;
+        for (int i = from; i < to; i++) {
+            double x = x(ts[i]);
+            double v = y[i] - offset;
+            double p = 1.0D;
+            for (int k = 0; k < maxPower; k++) {
+                powerSums[k] += p;
+                if (k <= degree) {
+                    valueSums[k] += v * p;
+                }
+                p *= x;
+            }
+        }
+        n += to - from;
+        coefficients = null;
+    }
+
+    // Same as addData, the skipped ranges (e.g. missing points) are not accumulated. The origin still spans the whole window
+    public void addData(long[] ts, double[] y, int from, int to, GapRanges skip) {
+        if (to <= from) {
+            return;
+        }
+        if (!origin) {
+            long first = ts[from];
+            long last = ts[to - 1];
+            setOrigin(first + (last - first) / 2, (last - first) / 2.0D);
+        }
+        int start = from;
+        for (int k = skip.indexAfter(from); k < skip.size() && skip.getStart(k) < to; k++) {
+            addData(ts, y, start, Math.max(start, skip.getStart(k)));
+            start = Math.max(start, skip.getEnd(k));
+        }
+        addData(ts, y, start, to);
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    // Solves the normal equations, Cholesky with a QR fallback for ill conditioned systems
+    public void fit() throws Exception {
+        int m = degree + 1;
+        if (n < m) {
+            throw new Exception("Not enough data points for degree " + degree + " (" + n + ")");
+        }
+        double[][] xtx = new double[m][m];
+        for (int r = 0; r < m; r++) {
+            for (int c = 0; c < m; c++) {
+                xtx[r][c] = powerSums[r + c];
+            }
+        }
+        RealMatrix a = new Array2DRowRealMatrix(xtx, false);
+        RealVector b = new ArrayRealVector(valueSums, true);
+        RealVector solution;
+        try {
+            solution = new CholeskyDecomposition(a).getSolver().solve(b);
+        } catch (NonPositiveDefiniteMatrixException e) {
+            solution = new QRDecomposition(a).getSolver().solve(b);
+        }
+        coefficients = solution.toArray();
+    }
+
+    public boolean isFitted() {
+        return coefficients != null;
+    }
+
+    public double predict(long ts) {
+        return horner(x(ts));
+    }
+
+    // Expected values for ts[from..to), written from out[0]
+    public void predict(long[] ts, double[] out, int from, int to) {
+        for (int i = from; i < to; i++) {
+            out[i - from] = horner(x(ts[i]));
+        }
+    }
+
+    // Residual statistics over a window, same definitions as the OpenForecast accuracy indicators
+    public void evaluate(long[] ts, double[] y, int from, int to) {
+        evaluate(ts, y, from, to, GapRanges.NONE);
+    }
+
+    // Residual statistics over a window without the skipped ranges
+    public void evaluate(long[] ts, double[] y, int from, int to, GapRanges skip) {
+        double sae = 0.0D;
+        double sape = 0.0D;
+        double sse = 0.0D;
+        int gap = skip.indexAfter(from);
+        for (int i = from; i < to; i++) {
+            if (gap < skip.size() && i >= skip.getStart(gap)) {
+                i = skip.getEnd(gap++) - 1;
+                continue;
+            }
+            double err = horner(x(ts[i])) - y[i];
+            sae += Math.abs(err);
+            sape += Math.abs(err / y[i]);
+            sse += err * err;
+        }
+        int count = to - from - skip.pointsIn(from, to);
+        mse = sse / count;
+        mad = sae / count;
+        mape = sape / count;
+        aic = count * Math.log(2 * Math.PI) + Math.log(sse / count) + 2 * (1 + 2);
+    }
+
+    public double getMSE() {
+        return mse;
+    }
+
+    public double getMAD() {
+        return mad;
+    }
+
+    public double getMAPE() {
+        return mape;
+    }
+
+    public double getAIC() {
+        return aic;
+    }
+
+    private double x(long ts) {
+        return (ts - center) / scale;
+    }
+
+    private double horner(double x) {
+        double res = 0.0D;
+        for (int k = coefficients.length - 1; k >= 0; k--) {
+            res = res * x + coefficients[k];
+        }
+        return res + offset;
+    }
+}
@@ -1,67 +1,113 @@
 package nl.us2.timeseriesoutlierdetection;
 
-import org.apache.commons.math3.stat.regression.SimpleRegression;
-
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.SortedMap;
 
 /**
  * Created by robin on 21/06/15.
  */
-public class RandomWalkRegressionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
+public class RandomWalkRegressionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ISnapshotTimeserieAnalyzer {
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        Model m = (Model) trainStreaming(dataLoader, timeserie);
+        if (m == null) {
+            return;
+        }
 
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-            TreeMap<Long, Double> deltas = kv.getValue().getTrainDeltas();
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Deltas = " + deltas.toString());
+        // Predict, every expected value builds on the previous expected value
+        classifyForecast(dataLoader, res, timeserie, m.forecast());
+    }
 
-            // Train simple regression based on deltas
-            SimpleRegression r = new SimpleRegression();
+    public IStreamingTimeserieModel trainStreaming(AbstractDataLoader dataLoader, Timeseries timeserie) {
+        SortedMap<Long, Double> deltas = timeserie.getTrainDeltas();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Deltas = {}", deltas);
 
-            // Train regression
-            for (Map.Entry<Long, Double> tskv : deltas.entrySet()) {
-                long ts = tskv.getKey();
-                double val = tskv.getValue();
-                r.addData((double)ts, val);
-            }
+        // Train simple regression based on deltas
+        LinearRegression r = new LinearRegression();
 
-            // Reliable?
-            double maxMse = 0.05; // 95% = 0.05
-            double relMse = r.getSumSquaredErrors() / r.getTotalSumSquares();
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Relative MSE = " + relMse);
-            if (Double.isNaN(relMse)) {
-                relMse = 0.0D;
-            }
-            if (relMse > maxMse) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on relative mean square error crosscheck (is " + relMse + " exceeds " + maxMse + ")");
-                continue;
-            }
+        // Train regression
+        for (Map.Entry<Long, Double> tskv : deltas.entrySet()) {
+            long ts = tskv.getKey();
+            double val = tskv.getValue();
+            r.addData((double)ts, val);
+        }
+
+        // Reliable?
+        double maxMse = 0.05; // 95% = 0.05
+        double relMse = r.getSumSquaredErrors() / r.getTotalSumSquares();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Relative MSE = {}", relMse);
+        if (Double.isNaN(relMse)) {
+            relMse = 0.0D;
+        }
+        if (relMse > maxMse) {
+            unreliable(dataLoader, "Unreliable based on relative mean square error crosscheck (is {} exceeds {})", relMse, maxMse);
+            return null;
+        }
+
+        double maxRelDif = Math.max(0.5 * relMse, 0.02); // Half of the expected error is acceptable, or 5%
+        double previousVal = timeserie.getTrainValues()[timeserie.getTrainSize() - 1];
+        return new Model(timeserie, r, maxRelDif, previousVal);
+    }
 
-            // Predict
-            double maxRelDif = Math.max(0.5 * relMse, 0.02); // Half of the expected error is acceptable, or 5%
-            double previousVal = kv.getValue().getDataTrain().get(kv.getValue().getDataTrain().lastKey());
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                long ts = tskv.getKey();
-                double val = tskv.getValue();
-                double expectedVal = previousVal + r.predict(ts);
-                previousVal = expectedVal;
-                double lb = expectedVal * (1-maxRelDif);
-                double rb = expectedVal * (1+maxRelDif);
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), ts + " " + val + " " + expectedVal );
-                if (val < lb || val > rb) {
-                    TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb);
-                    if (!kv.getValue().validateOutlier(outlier)) {
-                        continue;
+    public IStreamingTimeserieModel readSnapshot(Timeseries timeserie, DataInput in) throws IOException {
+        double maxRelDif = in.readDouble();
+        double previousVal = in.readDouble();
+        LinearRegression r = LinearRegression.read(in);
+        return new Model(timeserie, r, maxRelDif, previousVal);
+    }
+
+    // Online regression over the deltas
+    private class Model implements ISnapshotTimeserieModel {
+        private final Timeseries timeserie;
+        private final LinearRegression r;
+        private final double maxRelDif;
+        private double previousVal; // Last learned value
+
+        private Model(Timeseries timeserie, LinearRegression r, double maxRelDif, double previousVal) {
+            this.timeserie = timeserie;
+            this.r = r;
+            this.maxRelDif = maxRelDif;
+            this.previousVal = previousVal;
+        }
+
+        public void writeSnapshot(DataOutput out) throws IOException {
+            out.writeDouble(maxRelDif);
+            out.writeDouble(previousVal);
+            r.write(out);
+        }
+
+        // Batch forecast without learning, every expected value builds on the previous expected value
+        private IForecastModel forecast() {
+            return new AbstractForecastModel(ForecastBand.relative(maxRelDif)) {
+                protected void predict(long[] ts, double[] outExpected) {
+                    double expectedVal = previousVal;
+                    for (int i = 0; i < ts.length; i++) {
+                        expectedVal += r.predict(ts[i]);
+                        outExpected[i] = expectedVal;
                     }
-                    res.addOutlier(outlier);
-                } else {
-                    res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb));
                 }
+            };
+        }
+
+        public TimeserieOutlier classify(long ts, double val) {
+            double expectedVal = previousVal + r.predict(ts);
+            double lb = expectedVal * (1-maxRelDif);
+            double rb = expectedVal * (1+maxRelDif);
+            if (val < lb || val > rb) {
+                TimeserieOutlier outlier = new TimeserieOutlier(RandomWalkRegressionTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+                if (!timeserie.validateOutlier(outlier)) {
+                    return null;
+                }
+                return outlier;
             }
+            return new TimeserieInlier(RandomWalkRegressionTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+        }
+
+        public void learn(long ts, double val) {
+            r.addData((double)ts, val - previousVal);
+            previousVal = val;
         }
-        return res;
     }
 }
@@ -0,0 +1,101 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Growable primitive timestamp / value columns for raw (unbucketed, possibly unsorted) data points
+ */
+public class RawSeries {
+    private static final int INITIAL_CAPACITY = 64;
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    public RawSeries() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public RawSeries(int capacity) {
+        capacity = Math.max(capacity, 1);
+        timestamps = new long[capacity];
+        values = new double[capacity];
+    }
+
+    public void add(long ts, double val) {
+        // Same timestamp as the previous point replaces it, cheap for the common case, dedupe() handles the others
+        if (size > 0 && timestamps[size - 1] == ts) {
+            values[size - 1] = val;
+            return;
+        }
+        if (size == timestamps.length) {
+            int capacity = timestamps.length + (timestamps.length >> 1) + 1;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        timestamps[size] = ts;
+        values[size] = val;
+        size++;
+    }
+
+    // Keeps only the last value per timestamp, like a map put would, the order of the kept points is unchanged
+    public void dedupe() {
+        // Ascending data can't have duplicates left, add() already replaced consecutive ones
+        boolean ascending = true;
+        for (int i = 1; i < size && ascending; i++) {
+            ascending = timestamps[i] > timestamps[i - 1];
+        }
+        if (ascending) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(timestamps, size);
+        Arrays.sort(sorted);
+        boolean duplicates = false;
+        for (int i = 1; i < size && !duplicates; i++) {
+            duplicates = sorted[i] == sorted[i - 1];
+        }
+        if (!duplicates) {
+            return;
+        }
+
+        // Rare, boxing is fine here
+        HashMap<Long, Integer> last = new HashMap<Long, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            last.put(timestamps[i], i);
+        }
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (last.get(timestamps[i]) == i) {
+                timestamps[n] = timestamps[i];
+                values[n] = values[i];
+                n++;
+            }
+        }
+        size = n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Only the first size() entries are valid
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    // Only the first size() entries are valid
+    public double[] getValues() {
+        return values;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(timestamps[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
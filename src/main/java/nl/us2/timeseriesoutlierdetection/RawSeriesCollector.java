@@ -0,0 +1,46 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.HashMap;
+
+/**
+ * Sink collecting raw data points per serie into primitive columns
+ */
+public class RawSeriesCollector implements RawSeriesSink {
+    private final HashMap<String, RawSeries> series;
+    private String lastSerieName;
+    private RawSeries lastSerie;
+
+    public RawSeriesCollector() {
+        series = new HashMap<String, RawSeries>();
+    }
+
+    protected RawSeries getOrCreate(String serie) {
+        // Loaders tend to push many points for the same serie in a row
+        if (serie == lastSerieName) {
+            return lastSerie;
+        }
+        RawSeries raw = series.get(serie);
+        if (raw == null) {
+            raw = new RawSeries();
+            series.put(serie, raw);
+        }
+        lastSerieName = serie;
+        lastSerie = raw;
+        return raw;
+    }
+
+    public void add(String serie, long ts, double val) {
+        getOrCreate(serie).add(ts, val);
+    }
+
+    public void addAll(String serie, long[] ts, double[] vals, int length) {
+        RawSeries raw = getOrCreate(serie);
+        for (int i = 0; i < length; i++) {
+            raw.add(ts[i], vals[i]);
+        }
+    }
+
+    public HashMap<String, RawSeries> getSeries() {
+        return series;
+    }
+}
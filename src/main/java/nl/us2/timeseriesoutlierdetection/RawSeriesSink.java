@@ -0,0 +1,10 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Typed ingestion of raw data points, loaders push primitives instead of formatting numbers into strings
+ */
+public interface RawSeriesSink {
+    void add(String serie, long ts, double val);
+
+    void addAll(String serie, long[] ts, double[] vals, int length);
+}
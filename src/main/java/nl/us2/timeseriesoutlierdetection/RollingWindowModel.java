@@ -0,0 +1,146 @@
+package nl.us2.timeseriesoutlierdetection;
+
+/**
+ * Moving average over the best of several window sizes, fitted and evaluated in one pass with sliding sums
+ */
+public class RollingWindowModel {
+    private final int window;
+
+    // One step ahead errors of the chosen window over the training data
+    private final double mse;
+    private final double mad;
+    private final double mape;
+
+    private RollingWindowModel(int window, double mse, double mad, double mape) {
+        this.window = window;
+        this.mse = mse;
+        this.mad = mad;
+        this.mape = mape;
+    }
+
+    // Window statistics of y[from..to) for every window size, the lowest one step ahead MSE wins. Windows that do not fit are skipped
+    public static RollingWindowModel fit(double[] y, int from, int to, int[] windows) throws Exception {
+        return fit(y, from, to, windows, GapRanges.NONE);
+    }
+
+    // Same as fit, skipped points (e.g. missing ones) are not forecast targets. Windows over them still use their placeholder values
+    public static RollingWindowModel fit(double[] y, int from, int to, int[] windows, GapRanges skip) throws Exception {
+        int n = to - from;
+        int k = windows.length;
+        double[] sums = new double[k];
+        double[] sse = new double[k];
+        double[] sae = new double[k];
+        double[] sape = new double[k];
+
+        // One pass, the window sums slide by adding the new point and dropping the one a window back
+        int gap = skip.indexAfter(from);
+        for (int i = from; i < to; i++) {
+            if (gap < skip.size() && i >= skip.getEnd(gap)) {
+                gap++;
+            }
+            boolean scored = gap >= skip.size() || i < skip.getStart(gap);
+            double v = y[i];
+            int seen = i - from;
+            for (int w = 0; w < k; w++) {
+                int size = windows[w];
+                if (size >= n) {
+                    continue;
+                }
+                if (seen >= size) {
+                    // Forecast from the previous window before it slides
+                    if (scored) {
+                        double err = sums[w] / size - v;
+                        sse[w] += err * err;
+                        sae[w] += Math.abs(err);
+                        sape[w] += Math.abs(err / v);
+                    }
+                    double old = y[i - size];
+                    sums[w] -= old;
+                }
+                sums[w] += v;
+            }
+        }
+
+        // Best window
+        int best = -1;
+        double bestMse = Double.MAX_VALUE;
+        for (int w = 0; w < k; w++) {
+            if (windows[w] >= n || windows[w] < 1) {
+                continue;
+            }
+            int count = _scored(from, to, windows[w], skip);
+            if (count < 1) {
+                continue;
+            }
+            double windowMse = sse[w] / count;
+            if (windowMse < bestMse) {
+                bestMse = windowMse;
+                best = w;
+            }
+        }
+        if (best < 0) {
+            throw new Exception("No window fits " + n + " points");
+        }
+
+        int count = _scored(from, to, windows[best], skip);
+        return new RollingWindowModel(windows[best], bestMse, sae[best] / count, sape[best] / count);
+    }
+
+    // Forecast targets of a window size, every point after the first window that is not skipped
+    private static int _scored(int from, int to, int window, GapRanges skip) {
+        return to - from - window - skip.pointsIn(from + window, to);
+    }
+
+    // Mean and standard deviation of the window before every point of y[from..to), from must be at least one window in
+    public void rolling(double[] y, int from, int to, double[] outMean, double[] outStdDev) {
+        // Sliding Welford update of the mean and the squared deviations from it, the plain sum of squares cancels out on large values
+        double mean = 0.0D;
+        double m2 = 0.0D;
+        for (int i = from; i < to; i++) {
+            // Exact two pass statistics every window slides, so rounding errors of the updates do not build up
+            if ((i - from) % window == 0) {
+                mean = _mean(y, i - window, i);
+                m2 = _squaredDeviations(y, i - window, i, mean);
+            }
+            outMean[i - from] = mean;
+            outStdDev[i - from] = Math.sqrt(Math.max(0.0D, m2 / window));
+            double old = y[i - window];
+            double newMean = mean + (y[i] - old) / window;
+            m2 += (y[i] - old) * (y[i] - newMean + old - mean);
+            mean = newMean;
+        }
+    }
+
+    private static double _mean(double[] y, int from, int to) {
+        double sum = 0.0D;
+        for (int i = from; i < to; i++) {
+            sum += y[i];
+        }
+        return sum / (to - from);
+    }
+
+    private static double _squaredDeviations(double[] y, int from, int to, double mean) {
+        double res = 0.0D;
+        for (int i = from; i < to; i++) {
+            double d = y[i] - mean;
+            res += d * d;
+        }
+        return res;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public double getMSE() {
+        return mse;
+    }
+
+    public double getMAD() {
+        return mad;
+    }
+
+    public double getMAPE() {
+        return mape;
+    }
+}
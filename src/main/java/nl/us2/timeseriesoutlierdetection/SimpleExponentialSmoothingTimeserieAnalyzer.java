@@ -4,89 +4,125 @@ import net.sourceforge.openforecast.DataSet;
 import net.sourceforge.openforecast.Observation;
 import net.sourceforge.openforecast.models.SimpleExponentialSmoothingModel;
 
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
 /**
  * Created by robin on 21/06/15.
  */
-public class SimpleExponentialSmoothingTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
-
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {// Create train dataset
-            DataSet dsTrain = new DataSet();
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                long ts = tskv.getKey();
-                double val = tskv.getValue();
-                Observation o = new Observation(val);
-                o.setIndependentValue("ts", ts);
-                dsTrain.add(o);
-            }
+public class SimpleExponentialSmoothingTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ISnapshotTimeserieAnalyzer {
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        IStreamingTimeserieModel m = trainStreaming(dataLoader, timeserie);
+        if (m == null) {
+            return;
+        }
 
-            // Avg
-            double avg = kv.getValue().getTrainAvg();
+        // Classify
+        classifyStreaming(dataLoader, res, timeserie, m);
+    }
 
-            // Total sum of squares
-            double tsos = 0D;
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                double val = tskv.getValue();
-                tsos += Math.pow(val - avg, 2.0D);
-            }
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = " + avg);
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum squares = " + tsos);
-
-            // Model
-            SimpleExponentialSmoothingModel m = SimpleExponentialSmoothingModel.getBestFitModel(dsTrain);
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Alpha = " + m.getAlpha());// Reliable?
-
-            // Validate, total sum of squares must be bigger than 0 as else there is no delta between avg and data values
-            double mse = m.getMSE();
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = " + mse);// Reliable?
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute deviation = " + m.getMAD());// Reliable?
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute percentage error = " + m.getMAPE());// Reliable?
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Akaike Information Criteria = " + m.getAIC());// Reliable? less is better
-            double maxMse = 0.05; // 95% = 0.05
-            double relMse = mse / tsos;
-            if (relMse > maxMse && tsos > 0D) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on relative mean square error crosscheck (is " + relMse + " exceeds " + maxMse + ")");
-                continue;
-            }
-            // Average absolute error bigger than standard deviation is not acceptable
-            if (kv.getValue().getTrainStdDev() > 0 && m.getMAD() > kv.getValue().getTrainStdDev()) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on MAD (mean absolute error) / standard deviation crosscheck (MAD " + m.getMAD() + " exceeds stddev " + kv.getValue().getTrainStdDev() + ")");
-                continue;
-            }
-            // Average absolute error bigger than average is not acceptable
-            if (m.getMAD() > kv.getValue().getTrainAvg()) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on MAD (mean absolute error) / average crosscheck (MAD " + m.getMAD() + " exceeds avg " + kv.getValue().getTrainAvg() + ")");
-                continue;
-            }
+    public IStreamingTimeserieModel trainStreaming(AbstractDataLoader dataLoader, Timeseries timeserie) {
+        // Create train dataset
+        DataSet dsTrain = new DataSet();
+        for (Map.Entry<Long, Double> tskv : timeserie.getDataTrain().entrySet()) {
+            long ts = tskv.getKey();
+            double val = tskv.getValue();
+            Observation o = new Observation(val);
+            o.setIndependentValue("ts", ts);
+            dsTrain.add(o);
+        }
+
+        // Avg
+        double avg = timeserie.getTrainAvg();
+
+        // Total sum of squares
+        double tsos = timeserie.getTrainStatistics().getTotalSumSquares();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Average = {}", avg);
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum squares = {}", tsos);
 
-            // Classify
-            double maxRelDif = Math.max(0.5 * relMse, 0.05); // Half of the expected error is acceptable, or 5%
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                long ts = tskv.getKey();
-                double val = tskv.getValue();
-                Observation o = new Observation(0.0D); // Fake value
-                o.setIndependentValue("ts", ts);
-                double expectedVal = m.forecast(o);
-                double lb = Math.min(expectedVal - kv.getValue().getTrainStdDev(), expectedVal * (1-maxRelDif));
-                double rb = Math.max(expectedVal + kv.getValue().getTrainStdDev(), expectedVal * (1+maxRelDif));
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), ts + " " + val + " " + expectedVal );
-                if (val < lb || val > rb) {
-                    TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb);
-                    if (!kv.getValue().validateOutlier(outlier)) {
-                        continue;
-                    }
-                    res.addOutlier(outlier);
-                } else {
-                    res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb));
+        // Model
+        SimpleExponentialSmoothingModel m = SimpleExponentialSmoothingModel.getBestFitModel(dsTrain);
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Alpha = {}", m.getAlpha());// Reliable?
+
+        // Validate, total sum of squares must be bigger than 0 as else there is no delta between avg and data values
+        double mse = m.getMSE();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = {}", mse);// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute deviation = {}", m.getMAD());// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean absolute percentage error = {}", m.getMAPE());// Reliable?
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Akaike Information Criteria = {}", m.getAIC());// Reliable? less is better
+        double maxMse = 0.05; // 95% = 0.05
+        double relMse = mse / tsos;
+        if (relMse > maxMse && tsos > 0D) {
+            unreliable(dataLoader, "Unreliable based on relative mean square error crosscheck (is {} exceeds {})", relMse, maxMse);
+            return null;
+        }
+        // Average absolute error bigger than standard deviation is not acceptable
+        if (timeserie.getTrainStdDev() > 0 && m.getMAD() > timeserie.getTrainStdDev()) {
+            unreliable(dataLoader, "Unreliable based on MAD (mean absolute error) / standard deviation crosscheck (MAD {} exceeds stddev {})", m.getMAD(), timeserie.getTrainStdDev());
+            return null;
+        }
+        // Average absolute error bigger than average is not acceptable
+        if (m.getMAD() > timeserie.getTrainAvg()) {
+            unreliable(dataLoader, "Unreliable based on MAD (mean absolute error) / average crosscheck (MAD {} exceeds avg {})", m.getMAD(), timeserie.getTrainAvg());
+            return null;
+        }
+
+        // Smoothed level after the training data, this is also the forecast for any later point
+        double maxRelDif = Math.max(0.5 * relMse, 0.05); // Half of the expected error is acceptable, or 5%
+        Observation o = new Observation(0.0D); // Fake value
+        o.setIndependentValue("ts", timeserie.getTimestamps()[timeserie.getTrainSize()]);
+        return new Model(timeserie, m.getAlpha(), m.forecast(o), maxRelDif, timeserie.getTrainStdDev());
+    }
+
+    public IStreamingTimeserieModel readSnapshot(Timeseries timeserie, DataInput in) throws IOException {
+        double alpha = in.readDouble();
+        double level = in.readDouble();
+        double maxRelDif = in.readDouble();
+        double stdDev = in.readDouble();
+        return new Model(timeserie, alpha, level, maxRelDif, stdDev);
+    }
+
+    // Recursive smoothing: level = alpha * observed + (1 - alpha) * level
+    private class Model implements ISnapshotTimeserieModel {
+        private final Timeseries timeserie;
+        private final double alpha;
+        private final double maxRelDif;
+        private final double stdDev; // Of the training data the model was fitted on
+        private double level;
+
+        private Model(Timeseries timeserie, double alpha, double level, double maxRelDif, double stdDev) {
+            this.timeserie = timeserie;
+            this.alpha = alpha;
+            this.level = level;
+            this.maxRelDif = maxRelDif;
+            this.stdDev = stdDev;
+        }
+
+        public void writeSnapshot(DataOutput out) throws IOException {
+            out.writeDouble(alpha);
+            out.writeDouble(level);
+            out.writeDouble(maxRelDif);
+            out.writeDouble(stdDev);
+        }
+
+        public TimeserieOutlier classify(long ts, double val) {
+            double expectedVal = level;
+            double lb = Math.min(expectedVal - stdDev, expectedVal * (1-maxRelDif));
+            double rb = Math.max(expectedVal + stdDev, expectedVal * (1+maxRelDif));
+            if (val < lb || val > rb) {
+                TimeserieOutlier outlier = new TimeserieOutlier(SimpleExponentialSmoothingTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+                if (!timeserie.validateOutlier(outlier)) {
+                    return null;
                 }
+                return outlier;
             }
+            return new TimeserieInlier(SimpleExponentialSmoothingTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+        }
 
+        public void learn(long ts, double val) {
+            level = alpha * val + (1.0D - alpha) * level;
         }
-        return res;
     }
 }
@@ -1,71 +1,112 @@
 package nl.us2.timeseriesoutlierdetection;
 
-import org.apache.commons.math3.stat.regression.SimpleRegression;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Created by robin on 21/06/15.
  */
-public class SimpleRegressionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
-
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-            // Get slope
-            SimpleRegression r = new SimpleRegression();
+public class SimpleRegressionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ISnapshotTimeserieAnalyzer {
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        Model m = (Model) trainStreaming(dataLoader, timeserie);
+        if (m == null) {
+            return;
+        }
 
-            // Train regression
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                long ts = tskv.getKey();
-                double val = tskv.getValue();
-                r.addData((double)ts, val);
-            }
+        // Predict
+        classifyForecast(dataLoader, res, timeserie, m.snapshot());
+    }
 
-            // Slope
-            double slopeTs = 60.0D * r.getSlope(); // @todo dynamic
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope per time step = " + slopeTs);
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope = " + r.getSlope());
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope std err = " + r.getSlopeStdErr());
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope confidence interval = " + r.getSlopeConfidenceInterval()); //95% confidence interval
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = " + r.getMeanSquareError());
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Sum square err = " + r.getSumSquaredErrors());
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum square = " + r.getTotalSumSquares());
+    public IStreamingTimeserieModel trainStreaming(AbstractDataLoader dataLoader, Timeseries timeserie) {
+        // Get slope
+        LinearRegression r = new LinearRegression();
 
-            // Reliable?
-            double maxMse = 0.05; // 95% = 0.05
-            double relMse =r.getSumSquaredErrors() / r.getTotalSumSquares();
-            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Relative MSE = " + relMse);
-            if (Double.isNaN(relMse)) {
-                relMse = 0.0D;
-            }
-            if (relMse > maxMse) {
-                dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on relative mean square error crosscheck (is " + relMse + " exceeds " + maxMse + ")");
+        // Train regression, missing ranges are skipped
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getTrainValues();
+        GapRanges missing = timeserie.getMissing();
+        int gap = 0;
+        for (int i = 0; i < timeserie.getTrainSize(); i++) {
+            if (gap < missing.size() && i >= missing.getStart(gap)) {
+                i = missing.getEnd(gap++) - 1;
                 continue;
             }
+            r.addData((double)timestamps[i], values[i]);
+        }
 
-            // Predict
-            double maxRelDif = Math.max(0.5 * relMse, 0.02); // Half of the expected error is acceptable, or 5%
-            for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                long ts = tskv.getKey();
-                double val = tskv.getValue();
-                double expectedVal = r.predict(ts);
-                double lb = expectedVal * (1-maxRelDif);
-                double rb = expectedVal * (1+maxRelDif);
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), ts + " " + val + " " + expectedVal );
-                if (val < lb || val > rb) {
-                    TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb);
-                    if (!kv.getValue().validateOutlier(outlier)) {
-                        continue;
-                    }
-                    res.addOutlier(outlier);
-                } else {
-                    res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb));
+        // Slope
+        double slopeTs = 60.0D * r.getSlope(); // @todo dynamic
+        if (dataLoader.isLogEnabled(dataLoader.LOG_DEBUG, getClass().getSimpleName())) {
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope per time step = {}", slopeTs);
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope = {}", r.getSlope());
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope std err = {}", r.getSlopeStdErr());
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Slope confidence interval = {}", r.getSlopeConfidenceInterval()); //95% confidence interval
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Mean square err = {}", r.getMeanSquareError());
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Sum square err = {}", r.getSumSquaredErrors());
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Total sum square = {}", r.getTotalSumSquares());
+        }
+
+        // Reliable?
+        double maxMse = 0.05; // 95% = 0.05
+        double relMse =r.getSumSquaredErrors() / r.getTotalSumSquares();
+        dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Relative MSE = {}", relMse);
+        if (Double.isNaN(relMse)) {
+            relMse = 0.0D;
+        }
+        if (relMse > maxMse) {
+            unreliable(dataLoader, "Unreliable based on relative mean square error crosscheck (is {} exceeds {})", relMse, maxMse);
+            return null;
+        }
+
+        double maxRelDif = Math.max(0.5 * relMse, 0.02); // Half of the expected error is acceptable, or 5%
+        return new Model(timeserie, r, maxRelDif);
+    }
+
+    public IStreamingTimeserieModel readSnapshot(Timeseries timeserie, DataInput in) throws IOException {
+        double maxRelDif = in.readDouble();
+        LinearRegression r = LinearRegression.read(in);
+        return new Model(timeserie, r, maxRelDif);
+    }
+
+    // Online least squares, the regression keeps sufficient statistics only
+    private class Model implements ISnapshotTimeserieModel {
+        private final Timeseries timeserie;
+        private final LinearRegression r;
+        private final double maxRelDif;
+
+        private Model(Timeseries timeserie, LinearRegression r, double maxRelDif) {
+            this.timeserie = timeserie;
+            this.r = r;
+            this.maxRelDif = maxRelDif;
+        }
+
+        public void writeSnapshot(DataOutput out) throws IOException {
+            out.writeDouble(maxRelDif);
+            r.write(out);
+        }
+
+        // Batch forecast of the current line
+        private IForecastModel snapshot() {
+            return new LinearForecastModel(r, ForecastBand.relative(maxRelDif));
+        }
+
+        public TimeserieOutlier classify(long ts, double val) {
+            double expectedVal = r.predict(ts);
+            double lb = expectedVal * (1-maxRelDif);
+            double rb = expectedVal * (1+maxRelDif);
+            if (val < lb || val > rb) {
+                TimeserieOutlier outlier = new TimeserieOutlier(SimpleRegressionTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+                if (!timeserie.validateOutlier(outlier)) {
+                    return null;
                 }
+                return outlier;
             }
+            return new TimeserieInlier(SimpleRegressionTimeserieAnalyzer.this, timeserie.getSerieName(), ts, val, expectedVal, lb, rb);
+        }
+
+        public void learn(long ts, double val) {
+            r.addData((double)ts, val);
         }
-        return res;
     }
 }
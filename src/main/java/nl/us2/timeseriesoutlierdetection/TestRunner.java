@@ -10,7 +10,17 @@ import java.util.Random;
  * Created by robin on 21/06/15.
  */
 public class TestRunner {
+    private IMetrics metrics = IMetrics.NOOP;
+
     public void run() throws Exception {
+        // Metrics are dumped at the end with -Dmetrics=stdout or -Dmetrics=<file>
+        String metricsOut = System.getProperty("metrics");
+        MetricsRegistry registry = null;
+        if (metricsOut != null) {
+            registry = new MetricsRegistry();
+            metrics = registry;
+        }
+
         // List files
         URL url = this.getClass().getClassLoader().getResource("testdata");
         File folder = new File(url.toURI());
@@ -45,14 +55,22 @@ public class TestRunner {
         analyzers.add(new TimeBucketSimpleRegressionTimeserieAnalyzer());
         analyzers.add(new MultipleLinearRegressionTimeserieAnalyzer());
         analyzers.add(new SimpleExponentialSmoothingTimeserieAnalyzer());
+        analyzers.add(new HoltWintersTimeserieAnalyzer());
 
         // Load
-        AbstractDataLoader dl;
-        int numCores = Runtime.getRuntime().availableProcessors();
+        List<AbstractDataLoader> loaders = new ArrayList<AbstractDataLoader>();
         for (String p : testDataFiles) {
-            dl = new FileDataLoader(p);
+            AbstractDataLoader dl = new FileDataLoader(p);
+            dl.setMetrics(metrics);
             dl.load();
-            dl.analyze(analyzers, numCores);
+            loaders.add(dl);
+        }
+
+        // Analyze all files on one shared pool
+        BatchAnalyzerEngine engine = new BatchAnalyzerEngine();
+        engine.analyzeAll(loaders, analyzers);
+        engine.shutdown();
+        for (AbstractDataLoader dl : loaders) {
             ArrayList<ValidatedTimeserieOutlier> outliers = dl.validate();
             for (ValidatedTimeserieOutlier outlier : outliers) {
                 System.out.println(outlier.getDetails().toString());
@@ -63,15 +81,26 @@ public class TestRunner {
         _mutableRandom(analyzers);
         _mutableIncrement(analyzers);
         _mutableIntervals(analyzers);
+        _mutableStreaming(analyzers);
+
+        // Metrics
+        if (registry != null) {
+            if (metricsOut.isEmpty() || metricsOut.equals("stdout")) {
+                registry.dump(System.out);
+            } else {
+                registry.dump(new File(metricsOut));
+            }
+        }
     }
 
     protected void _mutableRandom(List<ITimeserieAnalyzer> analyzers) throws Exception {
         // Test mutable random
         MutableDataLoader mdl = new MutableDataLoader("mutable_random");
+        mdl.setMetrics(metrics);
         String serieName = "serieA";
         Random rand = new Random();
         for (int i = 0; i < 50; i++) {
-            mdl.addData(serieName, String.valueOf(i), String.valueOf(50 + rand.nextInt(5))); // 10% random
+            mdl.addData(serieName, i, 50 + rand.nextInt(5)); // 10% random
         }
 
         // Settings
@@ -87,10 +116,11 @@ public class TestRunner {
     protected void _mutableIncrement(List<ITimeserieAnalyzer> analyzers) throws Exception {
         // Test mutable random
         MutableDataLoader mdl = new MutableDataLoader("mutable_increment");
+        mdl.setMetrics(metrics);
         String serieName = "serieA";
         Random rand = new Random();
         for (int i = 0; i < 50; i++) {
-            mdl.addData(serieName, String.valueOf(i), String.valueOf(10 + i + rand.nextInt(3))); // steady increase, some noise
+            mdl.addData(serieName, i, 10 + i + rand.nextInt(3)); // steady increase, some noise
         }
 
         // Settings
@@ -106,6 +136,7 @@ public class TestRunner {
     protected void _mutableIntervals(List<ITimeserieAnalyzer> analyzers) throws Exception {
         // Test mutable random
         MutableDataLoader mdl = new MutableDataLoader("mutable_intervals");
+        mdl.setMetrics(metrics);
         String serieName = "serieA";
         Random rand = new Random();
         for (int i = 0; i < 50; i++) {
@@ -113,7 +144,7 @@ public class TestRunner {
             if (i % 4 == 0) {
                 val = val + 20 + rand.nextInt(3);
             }
-            mdl.addData(serieName, String.valueOf(i), String.valueOf(val)); // noisy base, noisy peaks
+            mdl.addData(serieName, i, val); // noisy base, noisy peaks
         }
 
         // Settings
@@ -125,4 +156,38 @@ public class TestRunner {
         mdl.analyze(analyzers);
         mdl.validate();
     }
+
+    protected void _mutableStreaming(List<ITimeserieAnalyzer> analyzers) throws Exception {
+        // Test streaming, one point at a time after the initial load
+        MutableDataLoader mdl = new MutableDataLoader("mutable_streaming");
+        mdl.setMetrics(metrics);
+        String serieName = "serieA";
+        Random rand = new Random();
+        for (int i = 0; i < 50; i++) {
+            mdl.addData(serieName, i, 50 + rand.nextInt(5)); // 10% random
+        }
+
+        // Settings
+        mdl.setForecastPeriods(1);
+        mdl.setDesiredTimeResolution(1);
+
+        // Execute
+        mdl.load();
+        mdl.startStreaming(analyzers);
+        File snapshotFile = File.createTempFile("mutable_streaming", ".snapshot");
+        snapshotFile.deleteOnExit();
+        for (int i = 50; i < 60; i++) {
+            // Restart halfway, models continue from the snapshot
+            if (i == 53) {
+                mdl.flush();
+                mdl.saveStreaming(snapshotFile);
+                mdl.resumeStreaming(analyzers, snapshotFile);
+            }
+            double val = i == 55 ? 100 : 50 + rand.nextInt(5); // One spike
+            for (TimeserieOutlier o : mdl.append(serieName, i, val).getOutliers()) {
+                mdl.log(mdl.LOG_INFO, getClass().getSimpleName(), "Streaming outlier at {} found by {}", o.getTs(), o.getAnalyzerName());
+            }
+        }
+        mdl.flush();
+    }
 }
@@ -2,7 +2,6 @@ package nl.us2.timeseriesoutlierdetection;
 
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,109 +9,125 @@ import java.util.Map;
  * Created by robin on 21/06/15.
  */
 public class TimeBucketSimpleRegressionTimeserieAnalyzer extends AbstractTimeserieAnalyzer implements ITimeserieAnalyzer {
-    public TimeserieAnalyzerResult analyze(AbstractDataLoader dataLoader, HashMap<String, Timeseries> timeseries) {
-        TimeserieAnalyzerResult res = new TimeserieAnalyzerResult();
-
-        // Iterate series
-        for (Map.Entry<String, Timeseries> kv : timeseries.entrySet()) {
-            ArrayList<Long> outliers = new ArrayList<Long>();
-            for (int i = 0; i < 4; i++) {
-                long windowSeconds = 0;
-                long targetSeconds = 0;
-                int minBuckets = 0;
-                int bucketModulo = 0;
-                switch (i) {
-                    case 0:
-                        // Minutely
-                        windowSeconds = 3600;
-                        targetSeconds = 60;
-                        minBuckets = 60;
-                        bucketModulo = 0;
-                        break;
-                    case 1:
-                        // 5-minutely
-                        windowSeconds = 3600;
-                        targetSeconds = 60;
-                        minBuckets = 12;
-                        bucketModulo = 5;
-                        break;
-                    case 2:
-                        // 10-minutely
-                        windowSeconds = 3600;
-                        targetSeconds = 60;
-                        minBuckets = 6;
-                        bucketModulo = 10;
-                        break;
-                    case 3:
-                        // Hourly
-                        windowSeconds = 86400;
-                        targetSeconds = 3600;
-                        minBuckets = 24;
-                        bucketModulo = 0;
-                        break;
-                }
-
-                // Get slope
-                SimpleRegression r = new SimpleRegression();
+    protected void analyzeSerie(AbstractDataLoader dataLoader, TimeserieAnalyzerResult res, Timeseries timeserie) {
+        // Classify window, buffers are shared by the bucket sizes
+        long[] timestamps = timeserie.getTimestamps();
+        double[] values = timeserie.getValues();
+        int from = timeserie.getClassifyStart();
+        int n = timeserie.size() - from;
+        boolean[] outliers = new boolean[n];
+        long[] buckets = new long[n];
+        double[] expected = new double[n];
+        double[] lower = new double[n];
+        double[] upper = new double[n];
+        for (int i = 0; i < 4; i++) {
+            long windowSeconds = 0;
+            long targetSeconds = 0;
+            int minBuckets = 0;
+            int bucketModulo = 0;
+            switch (i) {
+                case 0:
+                    // Minutely
+                    windowSeconds = 3600;
+                    targetSeconds = 60;
+                    minBuckets = 60;
+                    bucketModulo = 0;
+                    break;
+                case 1:
+                    // 5-minutely
+                    windowSeconds = 3600;
+                    targetSeconds = 60;
+                    minBuckets = 12;
+                    bucketModulo = 5;
+                    break;
+                case 2:
+                    // 10-minutely
+                    windowSeconds = 3600;
+                    targetSeconds = 60;
+                    minBuckets = 6;
+                    bucketModulo = 10;
+                    break;
+                case 3:
+                    // Hourly
+                    windowSeconds = 86400;
+                    targetSeconds = 3600;
+                    minBuckets = 24;
+                    bucketModulo = 0;
+                    break;
+            }
 
-                // Train regression
-                HashMap<Long, Double> bucketTotals = new HashMap<Long, Double>();
-                HashMap<Long, Double> bucketCounts = new HashMap<Long, Double>();
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataTrain().entrySet()) {
-                    long ts = transformTime(tskv.getKey(), windowSeconds, targetSeconds, bucketModulo);
-                    double val = tskv.getValue();
-                    bucketTotals.put(ts, bucketTotals.getOrDefault(ts, 0D) + val);
-                    bucketCounts.put(ts, bucketCounts.getOrDefault(ts, 0D) + 1.0D);
-                }
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Bucketed totals= " + bucketTotals.toString());
-                dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Bucketed counts = " + bucketCounts.toString());
-                for (Map.Entry<Long, Double> tskv : bucketTotals.entrySet()) {
-                    r.addData((double) tskv.getKey(), tskv.getValue() / bucketCounts.get(tskv.getKey()));
-                }
+            // Get slope
+            SimpleRegression r = new SimpleRegression();
 
-                // Enough buckets?
-                if (bucketTotals.size() < minBuckets) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on too few buckets");
+            // Train regression, missing ranges are skipped
+            HashMap<Long, Double> bucketTotals = new HashMap<Long, Double>();
+            HashMap<Long, Double> bucketCounts = new HashMap<Long, Double>();
+            double[] trainValues = timeserie.getTrainValues();
+            GapRanges missing = timeserie.getMissing();
+            int gap = 0;
+            for (int j = 0; j < timeserie.getTrainSize(); j++) {
+                if (gap < missing.size() && j >= missing.getStart(gap)) {
+                    j = missing.getEnd(gap++) - 1;
                     continue;
                 }
+                long ts = transformTime(timestamps[j], windowSeconds, targetSeconds, bucketModulo);
+                double val = trainValues[j];
+                bucketTotals.put(ts, bucketTotals.getOrDefault(ts, 0D) + val);
+                bucketCounts.put(ts, bucketCounts.getOrDefault(ts, 0D) + 1.0D);
+            }
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Bucketed totals= {}", bucketTotals);
+            dataLoader.log(dataLoader.LOG_DEBUG, getClass().getSimpleName(), "Bucketed counts = {}", bucketCounts);
+            for (Map.Entry<Long, Double> tskv : bucketTotals.entrySet()) {
+                r.addData((double) tskv.getKey(), tskv.getValue() / bucketCounts.get(tskv.getKey()));
+            }
 
-                // Reliable?
-                double maxMse = 0.05; // 95% = 0.05
-                double mse = r.getMeanSquareError();
-                if (mse > maxMse) {
-                    dataLoader.log(dataLoader.LOG_NOTICE, getClass().getSimpleName(), "Unreliable based on mean square error crosscheck (is " + mse + " exceeds " + maxMse + ")");
+            // Enough buckets?
+            if (bucketTotals.size() < minBuckets) {
+                unreliable(dataLoader, "Unreliable based on too few buckets");
+                continue;
+            }
+
+            // Reliable?
+            double maxMse = 0.05; // 95% = 0.05
+            double mse = r.getMeanSquareError();
+            if (mse > maxMse) {
+                unreliable(dataLoader, "Unreliable based on mean square error crosscheck (is {} exceeds {})", mse, maxMse);
+                continue;
+            }
+
+            // Predict
+            long classifyStart = System.nanoTime();
+            double maxStdDevMp = 1.0D;
+            double stdDev = timeserie.getTrainStdDev();
+            double avg = timeserie.getTrainAvg();
+            double maxErr = Math.max(maxStdDevMp * stdDev, 0.05 * avg); // 1x std deviation or 5% of average
+            for (int j = 0; j < n; j++) {
+                buckets[j] = transformTime(timestamps[from + j], windowSeconds, targetSeconds, bucketModulo);
+            }
+            new LinearForecastModel(r, ForecastBand.absolute(maxErr)).forecast(buckets, expected, lower, upper);
+            for (int j = 0; j < n; j++) {
+                if (timeserie.isMissing(from + j)) {
                     continue;
                 }
-
-                // Predict
-                double maxStdDevMp = 1.0D;
-                double stdDev = kv.getValue().getTrainStdDev();
-                double avg = kv.getValue().getTrainAvg();
-                double maxErr = Math.max(maxStdDevMp * stdDev, 0.05 * avg); // 1x std deviation or 5% of average
-                for (Map.Entry<Long, Double> tskv : kv.getValue().getDataClassify().entrySet()) {
-                    double val = tskv.getValue();
-                    double expectedVal = r.predict(transformTime(tskv.getKey(), windowSeconds, targetSeconds, bucketModulo));
-                    double rb = expectedVal + maxErr;
-                    double lb = expectedVal - maxErr;
-                    if (val < lb || val > rb) {
-                        // New outlier
-                        TimeserieOutlier outlier = new TimeserieOutlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb);
-                        if (!kv.getValue().validateOutlier(outlier)) {
-                            continue;
-                        }
-                        // Only add once, not for every interval we catch it
-                        if (outliers.contains(tskv.getKey())) {
-                            continue;
-                        }
-                        outliers.add(tskv.getKey());
-                        res.addOutlier(outlier);
-                    } else {
-                        res.addInlier(new TimeserieInlier(this, kv.getValue().getSerieName(), tskv.getKey(), tskv.getValue(), expectedVal, lb, rb));
+                double val = values[from + j];
+                if (val < lower[j] || val > upper[j]) {
+                    // New outlier
+                    TimeserieOutlier outlier = new TimeserieOutlier(this, timeserie.getSerieName(), timestamps[from + j], val, expected[j], lower[j], upper[j]);
+                    if (!timeserie.validateOutlier(outlier)) {
+                        continue;
+                    }
+                    // Only add once, not for every interval we catch it
+                    if (outliers[j]) {
+                        continue;
                     }
+                    outliers[j] = true;
+                    res.addOutlier(outlier);
+                } else {
+                    res.addInlier(new TimeserieInlier(this, timeserie.getSerieName(), timestamps[from + j], val, expected[j], lower[j], upper[j]));
                 }
             }
+            classified(dataLoader, classifyStart, timeserie);
         }
-        return res;
     }
 
     private int transformTime(long ts, long windowSeconds, long targetSeconds, int bucketModulo) {
@@ -0,0 +1,276 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Streaming statistics over a value column: Welford moments, Kahan compensated sums, log-space and delta moments
+ */
+public class TimeserieStatistics {
+    private long count;
+    private double mean;
+    private double m2;
+    private double min;
+    private double max;
+    private double sum;
+    private double sumCompensation;
+    private double sumSquares;
+    private double sumSquaresCompensation;
+
+    // Moments of the log of the values
+    private double logMean;
+    private double logM2;
+
+    // Moments of the deltas between consecutive values
+    private long deltaCount;
+    private double deltaMean;
+    private double deltaM2;
+    private double previousValue;
+
+    public TimeserieStatistics() {
+        clear();
+    }
+
+    public TimeserieStatistics(TimeserieStatistics other) {
+        count = other.count;
+        mean = other.mean;
+        m2 = other.m2;
+        min = other.min;
+        max = other.max;
+        sum = other.sum;
+        sumCompensation = other.sumCompensation;
+        sumSquares = other.sumSquares;
+        sumSquaresCompensation = other.sumSquaresCompensation;
+        logMean = other.logMean;
+        logM2 = other.logM2;
+        deltaCount = other.deltaCount;
+        deltaMean = other.deltaMean;
+        deltaM2 = other.deltaM2;
+        previousValue = other.previousValue;
+    }
+
+    public void clear() {
+        count = 0L;
+        mean = 0.0D;
+        m2 = 0.0D;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        sum = 0.0D;
+        sumCompensation = 0.0D;
+        sumSquares = 0.0D;
+        sumSquaresCompensation = 0.0D;
+        logMean = 0.0D;
+        logM2 = 0.0D;
+        deltaCount = 0L;
+        deltaMean = 0.0D;
+        deltaM2 = 0.0D;
+        previousValue = Double.NaN;
+    }
+
+    public void addAll(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            add(values[i]);
+        }
+    }
+
+    public void add(double val) {
+        count++;
+
+        // Welford
+        double d = val - mean;
+        mean += d / count;
+        m2 += d * (val - mean);
+
+        // Min, max
+        if (val < min) {
+            min = val;
+        }
+        if (val > max) {
+            max = val;
+        }
+
+        // Kahan sums
+        double y = val - sumCompensation;
+        double t = sum + y;
+        sumCompensation = (t - sum) - y;
+        sum = t;
+        y = (val * val) - sumSquaresCompensation;
+        t = sumSquares + y;
+        sumSquaresCompensation = (t - sumSquares) - y;
+        sumSquares = t;
+
+        // Log space
+        double logVal = logValue(val);
+        double ld = logVal - logMean;
+        logMean += ld / count;
+        logM2 += ld * (logVal - logMean);
+
+        // Deltas
+        if (count > 1) {
+            double delta = val - previousValue;
+            deltaCount++;
+            double dd = delta - deltaMean;
+            deltaMean += dd / deltaCount;
+            deltaM2 += dd * (delta - deltaMean);
+        }
+        previousValue = val;
+    }
+
+    // Replaces a value that was added before, in place. Min, max and the deltas depend on the other values, see replaceDelta and setRange
+    public void replace(double oldVal, double newVal) {
+        if (count == 0L) {
+            throw new IllegalStateException("Nothing to replace");
+        }
+
+        // Mean and squared deviations, the count does not change
+        double d = newVal - oldVal;
+        double previousMean = mean;
+        mean += d / count;
+        m2 = Math.max(0.0D, m2 + d * (newVal - mean + oldVal - previousMean));
+
+        // Kahan sums
+        double y = d - sumCompensation;
+        double t = sum + y;
+        sumCompensation = (t - sum) - y;
+        sum = t;
+        y = (newVal * newVal - oldVal * oldVal) - sumSquaresCompensation;
+        t = sumSquares + y;
+        sumSquaresCompensation = (t - sumSquares) - y;
+        sumSquares = t;
+
+        // Log space
+        double ld = logValue(newVal) - logValue(oldVal);
+        double previousLogMean = logMean;
+        logMean += ld / count;
+        logM2 = Math.max(0.0D, logM2 + ld * (logValue(newVal) - logMean + logValue(oldVal) - previousLogMean));
+    }
+
+    // Replaces a delta between consecutive values, in place
+    public void replaceDelta(double oldDelta, double newDelta) {
+        if (deltaCount == 0L) {
+            throw new IllegalStateException("No delta to replace");
+        }
+        double d = newDelta - oldDelta;
+        double previousMean = deltaMean;
+        deltaMean += d / deltaCount;
+        deltaM2 = Math.max(0.0D, deltaM2 + d * (newDelta - deltaMean + oldDelta - previousMean));
+    }
+
+    // Min, max and last value after values were replaced, these can not be derived from the replaced values alone
+    public void setRange(double min, double max, double lastValue) {
+        this.min = min;
+        this.max = max;
+        previousValue = lastValue;
+    }
+
+    // Snapshot state, every accumulator so adding continues exactly where it left off
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(sum);
+        out.writeDouble(sumCompensation);
+        out.writeDouble(sumSquares);
+        out.writeDouble(sumSquaresCompensation);
+        out.writeDouble(logMean);
+        out.writeDouble(logM2);
+        out.writeLong(deltaCount);
+        out.writeDouble(deltaMean);
+        out.writeDouble(deltaM2);
+        out.writeDouble(previousValue);
+    }
+
+    public static TimeserieStatistics read(DataInput in) throws IOException {
+        TimeserieStatistics s = new TimeserieStatistics();
+        s.count = in.readLong();
+        s.mean = in.readDouble();
+        s.m2 = in.readDouble();
+        s.min = in.readDouble();
+        s.max = in.readDouble();
+        s.sum = in.readDouble();
+        s.sumCompensation = in.readDouble();
+        s.sumSquares = in.readDouble();
+        s.sumSquaresCompensation = in.readDouble();
+        s.logMean = in.readDouble();
+        s.logM2 = in.readDouble();
+        s.deltaCount = in.readLong();
+        s.deltaMean = in.readDouble();
+        s.deltaM2 = in.readDouble();
+        s.previousValue = in.readDouble();
+        return s;
+    }
+
+    // Log of a value, zero maps to a very small value instead of minus infinity
+    public static double logValue(double in) {
+        double out = Math.log(in);
+        if (Double.isInfinite(out)) {
+            out = 1 / Double.MAX_VALUE; // Very small value
+        }
+        return out;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    // Population variance
+    public double getVariance() {
+        return count > 0 ? m2 / count : Double.NaN;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    // Sum of squared deviations from the mean
+    public double getTotalSumSquares() {
+        return m2;
+    }
+
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getSumSquares() {
+        return sumSquares;
+    }
+
+    public double getLogMean() {
+        return count > 0 ? logMean : Double.NaN;
+    }
+
+    public double getLogStdDev() {
+        return count > 0 ? Math.sqrt(logM2 / count) : Double.NaN;
+    }
+
+    public long getDeltaCount() {
+        return deltaCount;
+    }
+
+    public double getDeltaMean() {
+        return deltaCount > 0 ? deltaMean : Double.NaN;
+    }
+
+    public double getDeltaStdDev() {
+        return deltaCount > 0 ? Math.sqrt(deltaM2 / deltaCount) : Double.NaN;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + " count=" + count + " mean=" + getMean() + " stddev=" + getStdDev() + " min=" + getMin() + " max=" + getMax();
+    }
+}
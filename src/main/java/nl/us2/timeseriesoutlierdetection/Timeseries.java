@@ -1,27 +1,33 @@
 package nl.us2.timeseriesoutlierdetection;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * Created by robin on 21/06/15.
  */
 public class Timeseries {
-    private TreeMap<Long, Double> data;
-    private TreeMap<Long, Double> trainData;
-    private TreeMap<Long, Double> classifyData;
-    private double trainAvg;
-    private double trainStdDev;
-    private double trainMinVal;
-    private double trainMaxVal;
+    private long[] timestamps; // Sorted ascending, shared by all views
+    private double[] values;
+    private double[] trainValues; // Same array as values, unless sanitizing replaced training points
+    private int size;
+    private boolean ownsColumns; // False while the columns may be shared with the caller of setData
+    private TimeserieStatistics trainStatistics; // Lazily computed over the (sanitized) training values
+    private double sanitizePreviousValue;
+    private int sanitizedPoints; // Training points replaced since the data was set
+    private SortedMap<Long, Double> trainView; // Cached views, dropped when the data changes
+    private SortedMap<Long, Double> trainDeltasView;
+    private GapRanges gaps = GapRanges.NONE; // Buckets that had no data, filled by the gap policy
+    private GapPolicies gapPolicy = GapPolicies.ZERO;
     private long datapoints;
     private final double TRAIN_CLASSIFY_SPLIT = 0.7D;
     private long maxClassifyPoints;
-    private long trainDataPoints;
-    private long classifyDataPointsStart;
+    private int trainDataPoints;
+    private int classifyDataPointsStart;
     private boolean alertOutlierOver = true;
     private boolean alertOutlierUnder = true;
+    private ValueNormalizationModes normalizationMode = ValueNormalizationModes.NONE; // Applied to the values after bucketing
     private final String serieName;
 
     public boolean validateOutlier(TimeserieOutlier outlier) {
@@ -38,7 +44,9 @@ public class Timeseries {
 
     public Timeseries(String serieName, long forecastPeriod) {
         this.serieName = serieName;
-        data = new TreeMap<Long, Double>();
+        timestamps = new long[0];
+        values = new double[0];
+        trainValues = values;
         maxClassifyPoints = forecastPeriod; // How many data points to forecast?
     }
 
@@ -51,20 +59,58 @@ public class Timeseries {
         alertOutlierUnder = under;
     }
 
+    public ValueNormalizationModes getNormalizationMode() {
+        return normalizationMode;
+    }
+
+    public void setNormalizationMode(ValueNormalizationModes mode) {
+        normalizationMode = mode;
+    }
+
     public void rollup(long tsInterval) throws Exception {
-        TreeMap<Long, Double> sortedMap = new TreeMap<Long, Double>();
-        for (Map.Entry<Long, Double> tskv : data.entrySet()) {
-            long ts = tskv.getKey() - (tskv.getKey() % tsInterval);
-            sortedMap.put(ts, sortedMap.getOrDefault(ts, 0.0)+tskv.getValue());
+        // Data is sorted, so every bucket is a consecutive run of points
+        long[] rolledTs = new long[size];
+        double[] rolledVals = new double[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            long ts = timestamps[i] - (timestamps[i] % tsInterval);
+            if (n > 0 && rolledTs[n - 1] == ts) {
+                rolledVals[n - 1] += values[i];
+                continue;
+            }
+            rolledTs[n] = ts;
+            rolledVals[n] = values[i];
+            n++;
         }
-        setData(sortedMap);
+        setData(rolledTs, rolledVals, n);
     }
 
+    public void setData(SortedMap<Long, Double> d) throws Exception {
+        long[] ts = new long[d.size()];
+        double[] vals = new double[d.size()];
+        int i = 0;
+        for (Map.Entry<Long, Double> kv : d.entrySet()) {
+            ts[i] = kv.getKey();
+            vals[i] = kv.getValue();
+            i++;
+        }
+        setData(ts, vals, i);
+    }
 
-    public void setData(TreeMap<Long, Double> d) throws Exception {
+    // Set data from primitive columns, timestamps must be sorted ascending and unique, arrays are not copied
+    public void setData(long[] ts, double[] vals, int n) throws Exception {
+        setData(ts, vals, n, GapRanges.NONE, gapPolicy);
+    }
+
+    // Set data with the index ranges of buckets that had no data, their values are already filled according to the policy
+    public void setData(long[] ts, double[] vals, int n, GapRanges gaps, GapPolicies gapPolicy) throws Exception {
         // Set data
-        data = d;
-        datapoints = data.size();
+        this.gaps = gaps;
+        this.gapPolicy = gapPolicy;
+        timestamps = ts;
+        values = vals;
+        size = n;
+        datapoints = size;
 
         // Validate data set size
         if (datapoints < maxClassifyPoints) {
@@ -72,156 +118,288 @@ public class Timeseries {
         }
 
         // Train / classify cut-off
-        trainDataPoints = classifyDataPointsStart = (long)Math.floor((double)datapoints * TRAIN_CLASSIFY_SPLIT);
+        _computeSplit();
+
+        // Clear previously cached data sets
+        ownsColumns = false;
+        trainValues = values;
+        trainStatistics = null;
+        sanitizedPoints = 0;
+        _clearViews();
+
+        // Sanitize training data
+        _sanitizeTrainData();
+    }
+
+    protected void _computeSplit() {
+        trainDataPoints = classifyDataPointsStart = (int)Math.floor((double)datapoints * TRAIN_CLASSIFY_SPLIT);
         if (datapoints - trainDataPoints > maxClassifyPoints) {
-            trainDataPoints = datapoints-maxClassifyPoints;
+            trainDataPoints = (int)(datapoints-maxClassifyPoints);
             classifyDataPointsStart = trainDataPoints;
         }
+    }
 
-        // Clear previously cached data sets
-        trainAvg = Double.NaN;
-        trainStdDev = Double.NaN;
-        trainMinVal = Double.NaN;
-        trainMaxVal = Double.NaN;
-        trainData = null;
-        classifyData = null;
+    // Append a point newer than all current points, points moving into the training range update the statistics incrementally
+    public void append(long ts, double val) {
+        append(ts, val, false);
+    }
+
+    // Append a point, gap points are filled values of buckets without data
+    public void append(long ts, double val, boolean gap) {
+        if (size > 0 && ts <= timestamps[size - 1]) {
+            throw new IllegalArgumentException("Timestamp " + ts + " is not after the last timestamp " + timestamps[size - 1]);
+        }
 
-        // Reload
-        getDataTrain();
-        getDataClassify();
+        // Grow (and stop sharing) the columns
+        if (!ownsColumns || size == timestamps.length) {
+            int capacity = Math.max(size + 1, size + (size >> 1));
+            boolean sharedTrainValues = trainValues == values;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+            trainValues = sharedTrainValues ? values : trainValues;
+            ownsColumns = true;
+        }
+        timestamps[size] = ts;
+        values[size] = val;
+        if (gap) {
+            if (gaps == GapRanges.NONE) {
+                gaps = new GapRanges();
+            }
+            gaps.add(size, size + 1);
+        }
+        size++;
+        datapoints = size;
+        _clearViews();
+
+        // Move points from the classify into the training range
+        TimeserieStatistics stats = getTrainStatistics();
+        int previousTrainDataPoints = trainDataPoints;
+        _computeSplit();
+        GapRanges missing = getMissing();
+        for (int i = previousTrainDataPoints; i < trainDataPoints; i++) {
+            // Missing points keep their filled value but are not part of the statistics
+            boolean isMissing = missing.contains(i);
+            double trainVal = isMissing ? values[i] : _sanitizeTrainValue(i, values[i], stats.getMean(), stats.getStdDev());
+            if (trainValues == values && Double.compare(trainVal, values[i]) != 0) {
+                // Copy on first write
+                trainValues = Arrays.copyOf(values, i);
+            }
+            if (trainValues != values) {
+                if (trainValues.length <= i) {
+                    trainValues = Arrays.copyOf(trainValues, Math.max(i + 1, values.length));
+                }
+                trainValues[i] = trainVal;
+            }
+            if (!isMissing) {
+                stats.add(trainVal);
+            }
+        }
     }
 
     public String toString() {
-        return data.toString();
+        return getData().toString();
     }
 
-    public TreeMap<Long, Double> getData() {
-        return data;
+    public SortedMap<Long, Double> getData() {
+        return new TimeseriesView(timestamps, values, 0, size);
     }
 
-    public TreeMap<Long, Double> getDataTrain() {
-        if (trainData != null) {
-            return trainData;
-        }
-        long i = 0L;
-        trainData = new TreeMap<Long, Double>();
-        for (Map.Entry<Long, Double> kv : data.entrySet()) {
-            trainData.put(kv.getKey(), kv.getValue());
-            i++;
-            if (i == trainDataPoints) {
-                break;
-            }
+    public SortedMap<Long, Double> getDataTrain() {
+        if (trainView == null) {
+            trainView = new TimeseriesView(timestamps, trainValues, 0, trainDataPoints);
         }
+        return trainView;
+    }
 
-        // Stats
-        _computeTrainStatics();
+    private void _clearViews() {
+        trainView = null;
+        trainDeltasView = null;
+    }
 
-        // Sanitize training data
-        _sanitizeTrainData();
+    public SortedMap<Long, Double> getDataClassify() {
+        return new TimeseriesView(timestamps, values, classifyDataPointsStart, size);
+    }
 
-        return trainData;
+    // Number of data points
+    public int size() {
+        return size;
     }
 
-    protected void _computeTrainStatics() {
-        // Avg, min, max
-        trainMaxVal = Double.MIN_VALUE;
-        trainMinVal = Double.MAX_VALUE;
-        double total = 0.0D;
-        for (double val : trainData.values()) {
-            total += val;
-            if (val > trainMaxVal) {
-                trainMaxVal = val;
-            }
-            if (val < trainMinVal) {
-                trainMinVal = val;
-            }
+    // Backing timestamp column, only the first size() entries are valid
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    // Backing value column, only the first size() entries are valid
+    public double[] getValues() {
+        return values;
+    }
+
+    // Training points are the indices [0, getTrainSize())
+    public int getTrainSize() {
+        return trainDataPoints;
+    }
+
+    // Sanitized training values, indices match getTimestamps()
+    public double[] getTrainValues() {
+        return trainValues;
+    }
+
+    // Classify points are the indices [getClassifyStart(), size())
+    public int getClassifyStart() {
+        return classifyDataPointsStart;
+    }
+
+    public int getClassifySize() {
+        return size - classifyDataPointsStart;
+    }
+
+    // Statistics of the (sanitized) training values
+    public TimeserieStatistics getTrainStatistics() {
+        if (trainStatistics == null) {
+            _computeTrainStatics();
         }
-        trainAvg = total / (double)trainData.size();
+        return trainStatistics;
+    }
 
-        // Stddev
-        double msqT = 0.0D;
-        for (double val : trainData.values()) {
-            double msq = Math.pow(val - trainAvg, 2.0D);
-            msqT += msq;
+    // Statistics of the training values, missing ranges are skipped
+    protected void _computeTrainStatics() {
+        TimeserieStatistics stats = new TimeserieStatistics();
+        GapRanges missing = getMissing();
+        int from = 0;
+        for (int k = 0; k < missing.size() && missing.getStart(k) < trainDataPoints; k++) {
+            stats.addAll(trainValues, from, missing.getStart(k));
+            from = missing.getEnd(k);
         }
-        double msqAvg = msqT / (double)trainData.size();
-        trainStdDev = Math.sqrt(msqAvg);
+        if (from < trainDataPoints) {
+            stats.addAll(trainValues, from, trainDataPoints);
+        }
+        trainStatistics = stats;
     }
 
+    private static final double SANITIZE_STDDEV_MP = 6.0D; // x times the standard deviation of the average is considered weird datapoint, 5 seems to be a good value "At five-sigma there is only one chance in nearly two million that a random fluctuation would yield the result" - wikipedia
+    private static final double MAX_SPREAD_SHRINK = 1000.0D; // Replacing values that dominated the spread this much cancels too many digits, recompute then
+
+    // One pass over the training values, replacements update the statistics in place
     protected void _sanitizeTrainData() {
-        double outlierStdDevMp = 6.0D; // x times the standard deviation of the average is considered weird datapoint, 5 seems to be a good value "At five-sigma there is only one chance in nearly two million that a random fluctuation would yield the result" - wikipedia
-        double min = trainAvg - (trainStdDev * outlierStdDevMp);
-        double max = trainAvg + (trainStdDev * outlierStdDevMp);
-        double previousValue = trainAvg;
-        double replacementValue;
+        TimeserieStatistics stats = getTrainStatistics();
+        double trainAvg = stats.getMean();
+        double trainStdDev = stats.getStdDev();
+        double logStdDev = stats.getLogStdDev();
+        double deltaStdDev = stats.getDeltaStdDev();
+        sanitizePreviousValue = trainAvg;
         int replacementCount = 0;
-        for (Map.Entry<Long, Double> kv : trainData.entrySet()) {
-            // Weird outlier?
-            if (kv.getValue() < min || kv.getValue() > max) {
-                // Replacement value
-                replacementValue = (trainAvg + previousValue) / 2.0D;
-
-                // Log
-                System.err.println("Training outlier " + kv.getKey() + " val " + kv.getValue() + " avg " + trainAvg + " stddev " + trainStdDev +  " replacing with " + replacementValue);
-
-                // Replace the value
-                trainData.put(kv.getKey(), replacementValue);
-
-                // Count
+        int previous = -1; // Previous point that is not missing
+        boolean previousReplaced = false;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        GapRanges missing = getMissing();
+        int gap = 0;
+        for (int i = 0; i < trainDataPoints; i++) {
+            // Skip missing ranges, like the statistics do
+            if (gap < missing.size() && i >= missing.getStart(gap)) {
+                i = missing.getEnd(gap++) - 1;
+                continue;
+            }
+            double val = values[i];
+            double trainVal = _sanitizeTrainValue(i, val, trainAvg, trainStdDev);
+            boolean replaced = Double.compare(trainVal, val) != 0;
+            if (replaced) {
+                // Copy on first write, the full data set keeps the original value
+                if (trainValues == values) {
+                    trainValues = Arrays.copyOf(values, trainDataPoints);
+                }
+                trainValues[i] = trainVal;
+                stats.replace(val, trainVal);
                 replacementCount++;
+            }
 
-                // Continue to make sure we do not set this outlier as previous value
-                continue;
+            // The delta to the previous point changes when either one was replaced
+            if (previous >= 0 && (replaced || previousReplaced)) {
+                stats.replaceDelta(val - values[previous], trainVal - trainValues[previous]);
             }
-            previousValue = kv.getValue();
+            previous = i;
+            previousReplaced = replaced;
+            min = Math.min(min, trainVal);
+            max = Math.max(max, trainVal);
         }
+        if (replacementCount == 0) {
+            return;
+        }
+        stats.setRange(min, max, trainValues[previous]);
 
-        // Recompute if there were changes
-        if (replacementCount > 0) {
-            //System.out.println("Stdddev was " + trainStdDev + " avg was " + trainAvg);
+        // Recompute when the replaced values dominated a spread, or left it undefined (log of values below zero)
+        if (_spreadShrunk(trainStdDev, stats.getStdDev()) || _spreadShrunk(logStdDev, stats.getLogStdDev()) || _spreadShrunk(deltaStdDev, stats.getDeltaStdDev())) {
             _computeTrainStatics();
-            //System.out.println("Stdddev is " + trainStdDev + " avg is " + trainAvg);
         }
     }
 
+    private static boolean _spreadShrunk(double before, double after) {
+        return Double.isNaN(after) || after * MAX_SPREAD_SHRINK < before;
+    }
+
+    // Training value to use for a point, weird outliers are replaced
+    protected double _sanitizeTrainValue(int i, double val, double trainAvg, double trainStdDev) {
+        double min = trainAvg - (trainStdDev * SANITIZE_STDDEV_MP);
+        double max = trainAvg + (trainStdDev * SANITIZE_STDDEV_MP);
+        // Weird outlier?
+        if (val < min || val > max) {
+            // Replacement value, counted instead of logged, see getSanitizedPoints
+            sanitizedPoints++;
+
+            // Do not set this outlier as previous value
+            return (trainAvg + sanitizePreviousValue) / 2.0D;
+        }
+        sanitizePreviousValue = val;
+        return val;
+    }
+
+    // Index ranges of buckets that had no data
+    public GapRanges getGaps() {
+        return gaps;
+    }
+
+    public GapPolicies getGapPolicy() {
+        return gapPolicy;
+    }
+
+    // Index ranges analyzers skip, the gaps when the policy is MISSING and none otherwise
+    public GapRanges getMissing() {
+        return gapPolicy == GapPolicies.MISSING ? gaps : GapRanges.NONE;
+    }
+
+    public boolean isMissing(int i) {
+        return gapPolicy == GapPolicies.MISSING && gaps.contains(i);
+    }
+
+    // Training points replaced by sanitizing since the data was set
+    public int getSanitizedPoints() {
+        return sanitizedPoints;
+    }
+
     public double getTrainAvg() {
-        return trainAvg;
+        return getTrainStatistics().getMean();
     }
 
     public double getTrainStdDev() {
-        return trainStdDev;
+        return getTrainStatistics().getStdDev();
     }
 
-    public double getTrainMinVal() { return trainMinVal; }
+    public double getTrainMinVal() { return getTrainStatistics().getMin(); }
 
-    public double getTrainMaxVal() { return trainMaxVal; }
+    public double getTrainMaxVal() { return getTrainStatistics().getMax(); }
 
-    public SortedMap<Long, Double> getDataClassify() {
-        if (classifyData != null) {
-            return classifyData;
+    public SortedMap<Long, Double> getTrainDeltas() {
+        if (trainDeltasView != null) {
+            return trainDeltasView;
         }
-        long i = 0L;
-        classifyData = new TreeMap<Long, Double>();
-        for (Map.Entry<Long, Double> kv : data.entrySet()) {
-            i++;
-            if (i <= classifyDataPointsStart) {
-                continue;
-            }
-            classifyData.put(kv.getKey(), kv.getValue());
-        }
-        return classifyData;
-    }
-
-    public TreeMap<Long, Double> getTrainDeltas() {
-        TreeMap<Long, Double> deltas = new TreeMap<Long, Double>();
-        double previousValue = Double.NaN;
-        for (Map.Entry<Long, Double> tskv : getDataTrain().entrySet()) {
-            double val = tskv.getValue();
-            if (!Double.isNaN(previousValue)) {
-                deltas.put(tskv.getKey(), val - previousValue);
-            }
-            previousValue = val;
+        int n = Math.max(0, trainDataPoints - 1);
+        double[] deltas = new double[n + 1];
+        for (int i = 1; i < trainDataPoints; i++) {
+            deltas[i] = trainValues[i] - trainValues[i - 1];
         }
-        return deltas;
+        // Deltas are aligned with the timestamp column, the first training point has no delta
+        trainDeltasView = new TimeseriesView(timestamps, deltas, 1, trainDataPoints);
+        return trainDeltasView;
     }
 }
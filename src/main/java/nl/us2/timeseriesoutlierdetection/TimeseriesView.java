@@ -0,0 +1,145 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.*;
+
+/**
+ * Read-only sorted map view over a range of primitive timestamp / value columns, no data is copied
+ */
+public class TimeseriesView extends AbstractMap<Long, Double> implements SortedMap<Long, Double> {
+    private final long[] timestamps;
+    private final double[] values;
+    private final int from; // Inclusive
+    private final int to; // Exclusive
+
+    public TimeseriesView(long[] timestamps, double[] values, int from, int to) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.from = from;
+        this.to = Math.max(from, to);
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    // Index of the timestamp in the backing columns, -1 if not part of this view
+    protected int indexOf(Object key) {
+        if (!(key instanceof Long)) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(timestamps, from, to, (Long) key);
+        return i < 0 ? -1 : i;
+    }
+
+    // First index in the backing columns with a timestamp >= ts
+    protected int lowerBound(long ts) {
+        int i = Arrays.binarySearch(timestamps, from, to, ts);
+        return i < 0 ? -(i + 1) : i;
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    public Double get(Object key) {
+        int i = indexOf(key);
+        if (i == -1) {
+            return null;
+        }
+        return values[i];
+    }
+
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    public SortedMap<Long, Double> subMap(Long fromKey, Long toKey) {
+        return new TimeseriesView(timestamps, values, lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    public SortedMap<Long, Double> headMap(Long toKey) {
+        return new TimeseriesView(timestamps, values, from, lowerBound(toKey));
+    }
+
+    public SortedMap<Long, Double> tailMap(Long fromKey) {
+        return new TimeseriesView(timestamps, values, lowerBound(fromKey), to);
+    }
+
+    public Long firstKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return timestamps[from];
+    }
+
+    public Long lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return timestamps[to - 1];
+    }
+
+    public Set<Entry<Long, Double>> entrySet() {
+        return new AbstractSet<Entry<Long, Double>>() {
+            public Iterator<Entry<Long, Double>> iterator() {
+                return new Iterator<Entry<Long, Double>>() {
+                    private int i = from;
+
+                    public boolean hasNext() {
+                        return i < to;
+                    }
+
+                    public Entry<Long, Double> next() {
+                        if (i >= to) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Long, Double> e = new SimpleImmutableEntry<Long, Double>(timestamps[i], values[i]);
+                        i++;
+                        return e;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    public Collection<Double> values() {
+        return new AbstractCollection<Double>() {
+            public Iterator<Double> iterator() {
+                return new Iterator<Double>() {
+                    private int i = from;
+
+                    public boolean hasNext() {
+                        return i < to;
+                    }
+
+                    public Double next() {
+                        if (i >= to) {
+                            throw new NoSuchElementException();
+                        }
+                        return values[i++];
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+}
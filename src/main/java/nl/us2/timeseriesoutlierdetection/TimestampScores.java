@@ -0,0 +1,137 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.Arrays;
+
+/**
+ * Net outlier score and outlier count per timestamp, open addressing over dense entry arrays so nothing is boxed
+ */
+public class TimestampScores {
+    // Entries in insertion order
+    private long[] timestamps;
+    private double[] scores;
+    private int[] outliers;
+    private int[] lastOutlier; // Caller defined reference of the last outlier added, -1 if none
+    private int size = 0;
+
+    // Hash slots hold entry index + 1, 0 is empty
+    private int[] slots;
+
+    public TimestampScores() {
+        this(16);
+    }
+
+    public TimestampScores(int expectedSize) {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1);
+        slots = new int[capacity];
+        timestamps = new long[capacity / 2];
+        scores = new double[capacity / 2];
+        outliers = new int[capacity / 2];
+        lastOutlier = new int[capacity / 2];
+    }
+
+    // Adds an outlier score, returns the reference of the previous outlier at this timestamp or -1
+    public int addOutlier(long ts, double score, int ref) {
+        int i = _entry(ts);
+        scores[i] += score;
+        outliers[i]++;
+        int previous = lastOutlier[i];
+        lastOutlier[i] = ref;
+        return previous;
+    }
+
+    public void addInlier(long ts, double score) {
+        int i = _entry(ts); // Before indexing, the entry arrays may grow
+        scores[i] -= score;
+    }
+
+    // Entry index of a timestamp, -1 if absent
+    public int indexOf(long ts) {
+        int mask = slots.length - 1;
+        for (int s = _hash(ts) & mask; slots[s] != 0; s = (s + 1) & mask) {
+            if (timestamps[slots[s] - 1] == ts) {
+                return slots[s] - 1;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(long ts) {
+        return indexOf(ts) >= 0;
+    }
+
+    // Net score, NaN if nothing was scored at this timestamp
+    public double getScore(long ts) {
+        int i = indexOf(ts);
+        return i < 0 ? Double.NaN : scores[i];
+    }
+
+    public int getOutliers(long ts) {
+        int i = indexOf(ts);
+        return i < 0 ? 0 : outliers[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Entry accessors, 0 <= i < size()
+    public long getTs(int i) {
+        return timestamps[i];
+    }
+
+    public double getScoreAt(int i) {
+        return scores[i];
+    }
+
+    public int getOutliersAt(int i) {
+        return outliers[i];
+    }
+
+    public int getLastOutlierAt(int i) {
+        return lastOutlier[i];
+    }
+
+    private int _entry(long ts) {
+        int mask = slots.length - 1;
+        int s = _hash(ts) & mask;
+        for (; slots[s] != 0; s = (s + 1) & mask) {
+            if (timestamps[slots[s] - 1] == ts) {
+                return slots[s] - 1;
+            }
+        }
+
+        // New entry, grow at half load
+        if (size == timestamps.length) {
+            _grow();
+            return _entry(ts);
+        }
+        int i = size++;
+        timestamps[i] = ts;
+        lastOutlier[i] = -1;
+        slots[s] = i + 1;
+        return i;
+    }
+
+    private void _grow() {
+        int capacity = slots.length * 2;
+        timestamps = Arrays.copyOf(timestamps, capacity / 2);
+        scores = Arrays.copyOf(scores, capacity / 2);
+        outliers = Arrays.copyOf(outliers, capacity / 2);
+        lastOutlier = Arrays.copyOf(lastOutlier, capacity / 2);
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int s = _hash(timestamps[i]) & mask;
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = i + 1;
+        }
+    }
+
+    // Timestamps are multiples of the resolution, mix so the low bits spread
+    private static int _hash(long ts) {
+        long h = ts * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,254 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Streaming tab / space separated parser, tokenizes bytes without regular expressions and parses numbers straight into primitives
+ */
+public class TsvStreamParser {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FAST_DIGITS = 18; // Fits in a long without overflow
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final String tsColumn;
+    private final boolean memoryMapped;
+
+    // Per parse state
+    private Handler handler;
+    private int colTs;
+    private int[] columnSeries;
+    private double[] rowValues;
+    private boolean[] rowHasValue;
+    private long lineNumber;
+
+    public interface Handler {
+        // Maps every header column to a serie index, -1 to skip the column
+        int[] header(String[] columns) throws Exception;
+
+        void point(int serie, long ts, double val);
+    }
+
+    /**
+     * @param tsColumn Name of the timestamp column in the header
+     * @param memoryMapped Map the file instead of streaming it through a fixed size buffer, the streaming mode never holds more than one buffer (or one line, if longer) of the file
+     */
+    public TsvStreamParser(String tsColumn, boolean memoryMapped) {
+        this.tsColumn = tsColumn;
+        this.memoryMapped = memoryMapped;
+    }
+
+    public void parse(File file, Handler handler) throws Exception {
+        this.handler = handler;
+        colTs = -1;
+        columnSeries = null;
+        lineNumber = 0L;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            if (memoryMapped && channel.size() <= Integer.MAX_VALUE) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int end = parseLines(buf, 0, buf.limit());
+                parseLine(buf, end, buf.limit());
+            } else {
+                ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+                while (channel.read(buf) != -1) {
+                    // Parse complete lines, keep the remainder for the next read
+                    buf.flip();
+                    int end = parseLines(buf, 0, buf.limit());
+                    buf.position(end);
+                    buf.compact();
+                    if (!buf.hasRemaining()) {
+                        // Line longer than the buffer
+                        ByteBuffer larger = ByteBuffer.allocate(buf.capacity() * 2);
+                        buf.flip();
+                        larger.put(buf);
+                        buf = larger;
+                    }
+                }
+                buf.flip();
+                parseLine(buf, 0, buf.limit());
+            }
+        } finally {
+            in.close();
+            this.handler = null;
+        }
+    }
+
+    // Parses all complete lines in [start, end), returns the offset of the first incomplete line
+    private int parseLines(ByteBuffer buf, int start, int end) throws Exception {
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) == '\n') {
+                parseLine(buf, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    private void parseLine(ByteBuffer buf, int start, int end) throws Exception {
+        // Skip empty lines
+        int i = skipWhitespace(buf, start, end);
+        if (i == end) {
+            return;
+        }
+        lineNumber++;
+
+        // First line is the header
+        if (columnSeries == null) {
+            parseHeader(buf, i, end);
+            return;
+        }
+
+        // Tokens
+        long ts = 0L;
+        boolean hasTs = false;
+        int col = 0;
+        while (i < end) {
+            int tokenEnd = i;
+            while (tokenEnd < end && !isWhitespace(buf.get(tokenEnd))) {
+                tokenEnd++;
+            }
+            if (col == colTs) {
+                ts = parseLong(buf, i, tokenEnd);
+                hasTs = true;
+            } else if (col < columnSeries.length && columnSeries[col] != -1) {
+                rowValues[col] = parseDouble(buf, i, tokenEnd);
+                rowHasValue[col] = true;
+            }
+            col++;
+            i = skipWhitespace(buf, tokenEnd, end);
+        }
+        if (!hasTs) {
+            throw new Exception("Missing " + tsColumn + " column on line " + lineNumber);
+        }
+
+        // Emit
+        for (int c = 0; c < columnSeries.length; c++) {
+            if (!rowHasValue[c]) {
+                continue;
+            }
+            rowHasValue[c] = false;
+            handler.point(columnSeries[c], ts, rowValues[c]);
+        }
+    }
+
+    private void parseHeader(ByteBuffer buf, int i, int end) throws Exception {
+        ArrayList<String> cols = new ArrayList<String>();
+        while (i < end) {
+            int tokenEnd = i;
+            while (tokenEnd < end && !isWhitespace(buf.get(tokenEnd))) {
+                tokenEnd++;
+            }
+            cols.add(decode(buf, i, tokenEnd));
+            i = skipWhitespace(buf, tokenEnd, end);
+        }
+        String[] header = cols.toArray(new String[cols.size()]);
+        for (int c = 0; c < header.length; c++) {
+            if (header[c].equals(tsColumn)) {
+                colTs = c;
+            }
+        }
+        if (colTs == -1) {
+            throw new Exception("Missing " + tsColumn + " column in header");
+        }
+        columnSeries = handler.header(header);
+        rowValues = new double[columnSeries.length];
+        rowHasValue = new boolean[columnSeries.length];
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == '\f';
+    }
+
+    private static int skipWhitespace(ByteBuffer buf, int i, int end) {
+        while (i < end && isWhitespace(buf.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buf.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static long parseLong(ByteBuffer buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > MAX_FAST_DIGITS) {
+            return Long.parseLong(decode(buf, start, end));
+        }
+        long v = 0L;
+        for (; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return Long.parseLong(decode(buf, start, end));
+            }
+            v = v * 10L + d;
+        }
+        return negative ? -v : v;
+    }
+
+    // Exact for plain decimals that fit the fast path, anything else is handed to Double.parseDouble
+    protected static double parseDouble(ByteBuffer buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0L;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean dot = false;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b == '.' && !dot) {
+                dot = true;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9) {
+                // Exponent, NaN, Infinity, ..
+                return Double.parseDouble(decode(buf, start, end));
+            }
+            if (digits > 0 || d != 0) {
+                digits++;
+            }
+            if (digits > MAX_FAST_DIGITS) {
+                return Double.parseDouble(decode(buf, start, end));
+            }
+            mantissa = mantissa * 10L + d;
+            if (dot) {
+                fractionDigits++;
+            }
+        }
+        if (end - start == (negative || buf.get(start) == '+' ? 1 : 0) + (dot ? 1 : 0)) {
+            // No digits at all
+            return Double.parseDouble(decode(buf, start, end));
+        }
+        // Both the mantissa and the power of ten are exact doubles, so one division is correctly rounded
+        if (mantissa >= (1L << 53) || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(decode(buf, start, end));
+        }
+        double v = (double) mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -v : v;
+    }
+}
@@ -2,17 +2,45 @@ package nl.us2.timeseriesoutlierdetection;
 
 import com.google.gson.JsonObject;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by robin on 25/06/15.
  */
 public class ValidatedTimeserieOutlier {
+    private String serieName;
     private long ts;
     private double score;
+    private double combinedScore;
+    private List<TimeserieOutlier> outliers;
+    private DetailsBuilder detailsBuilder;
     private JsonObject details;
 
+    // Builds the JSON details of a validated outlier on request
+    public interface DetailsBuilder {
+        JsonObject build(ValidatedTimeserieOutlier vtso);
+    }
+
     public ValidatedTimeserieOutlier(long ts, double score) {
         this.ts = ts;
         this.score = score;
+        this.combinedScore = score;
+        this.outliers = Collections.emptyList();
+    }
+
+    public ValidatedTimeserieOutlier(String serieName, long ts, double score, double combinedScore, List<TimeserieOutlier> outliers, DetailsBuilder detailsBuilder) {
+        this.serieName = serieName;
+        this.ts = ts;
+        this.score = score;
+        this.combinedScore = combinedScore;
+        this.outliers = outliers;
+        this.detailsBuilder = detailsBuilder;
+    }
+
+    // Serie the score belongs to, null for a score over all series
+    public String getSerieName() {
+        return serieName;
     }
 
     public long getTs() {
@@ -23,11 +51,24 @@ public class ValidatedTimeserieOutlier {
         return score;
     }
 
+    // Net score at this timestamp summed over all series
+    public double getCombinedScore() {
+        return combinedScore;
+    }
+
+    // Outliers found at this timestamp
+    public List<TimeserieOutlier> getOutliers() {
+        return outliers;
+    }
+
     public void setDetails(JsonObject x) {
         details = x;
     }
 
     public JsonObject getDetails() {
+        if (details == null && detailsBuilder != null) {
+            details = detailsBuilder.build(this);
+        }
         return details;
     }
 }
@@ -0,0 +1,86 @@
+package nl.us2.timeseriesoutlierdetection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outlier scores of an analysis result per serie and timestamp and combined over all series, built in one pass
+ */
+public class ValidationScores {
+    private final List<TimeserieOutlier> outliers;
+    private final int[] previousOutlier; // Per outlier the index of the previous one with the same serie and timestamp, -1 at the first
+    private final HashMap<String, TimestampScores> series = new HashMap<String, TimestampScores>();
+    private final TimestampScores combined;
+
+    public ValidationScores(AnalysisResult result) {
+        outliers = result.getOutliers();
+        List<TimeserieInlier> inliers = result.getInliers();
+        previousOutlier = new int[outliers.size()];
+        combined = new TimestampScores(outliers.size());
+
+        // Consecutive results mostly belong to the same serie, skip the map lookup then
+        String serieName = null;
+        TimestampScores scores = null;
+        for (int i = 0; i < outliers.size(); i++) {
+            TimeserieOutlier o = outliers.get(i);
+            if (!o.getSerieName().equals(serieName)) {
+                serieName = o.getSerieName();
+                scores = _serie(serieName);
+            }
+            double score = o.getAnalyzer().getOutlierScore() + o.getOutlierMagnitude();
+            previousOutlier[i] = scores.addOutlier(o.getTs(), score, i);
+            combined.addOutlier(o.getTs(), score, i);
+        }
+        for (int i = 0; i < inliers.size(); i++) {
+            TimeserieInlier o = inliers.get(i);
+            if (!o.getSerieName().equals(serieName)) {
+                serieName = o.getSerieName();
+                scores = _serie(serieName);
+            }
+            double score = o.getAnalyzer().getInlierScore();
+            scores.addInlier(o.getTs(), score);
+            combined.addInlier(o.getTs(), score);
+        }
+    }
+
+    private TimestampScores _serie(String serieName) {
+        TimestampScores scores = series.get(serieName);
+        if (scores == null) {
+            scores = new TimestampScores();
+            series.put(serieName, scores);
+        }
+        return scores;
+    }
+
+    public Set<String> getSerieNames() {
+        return Collections.unmodifiableSet(series.keySet());
+    }
+
+    // Scores of one serie, null if it has no results
+    public TimestampScores getSerie(String serieName) {
+        return series.get(serieName);
+    }
+
+    // Scores summed over all series
+    public TimestampScores getCombined() {
+        return combined;
+    }
+
+    // Outliers of a serie at a timestamp, in result order
+    public List<TimeserieOutlier> getOutliers(String serieName, long ts) {
+        TimestampScores scores = series.get(serieName);
+        int i = scores == null ? -1 : scores.indexOf(ts);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        ArrayList<TimeserieOutlier> res = new ArrayList<TimeserieOutlier>(scores.getOutliersAt(i));
+        for (int ref = scores.getLastOutlierAt(i); ref >= 0; ref = previousOutlier[ref]) {
+            res.add(outliers.get(ref));
+        }
+        Collections.reverse(res);
+        return res;
+    }
+}